@@ -17,75 +17,29 @@
 package com.supertokens.session;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
 import androidx.annotation.Nullable;
 
-//TODO verify about locking
-
 class AntiCSRF {
-    private static AntiCSRFTokenInfo antiCSRFTokenInfo;
-
     static String getToken(Context context, @Nullable String associatedAccessTokenUpdate) {
         if ( associatedAccessTokenUpdate == null ) {
-            antiCSRFTokenInfo = null;
             return null;
         }
 
-        if ( antiCSRFTokenInfo == null ) {
-            SharedPreferences sharedPreferences = getSharedPreferences(context);
-            String antiCSRF = sharedPreferences.getString(getSharedPrefsAntiCSRFKey(context), null);
-            if ( antiCSRF == null ) {
-                return null;
-            }
-
-            antiCSRFTokenInfo = new AntiCSRFTokenInfo(antiCSRF, associatedAccessTokenUpdate);
-        } else if ( antiCSRFTokenInfo.associatedAccessTokenUpdate != null && !antiCSRFTokenInfo.associatedAccessTokenUpdate.equals(associatedAccessTokenUpdate) ) {
-            antiCSRFTokenInfo = null;
-            return getToken(context, associatedAccessTokenUpdate);
-        }
-
-        return antiCSRFTokenInfo.antiCSRF;
+        // The token is kept in the same snapshot as the access token update it belongs to, so there is no
+        // need to re-validate the association against storage here
+        return TokenCache.get(context).antiCSRF;
     }
 
     static void removeToken(Context context) {
-        SharedPreferences sharedPreferences = getSharedPreferences(context);
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.remove(getSharedPrefsAntiCSRFKey(context));
-        editor.apply();
-
-        antiCSRFTokenInfo = null;
+        new SessionUpdate().removeAntiCSRF().commit(context);
     }
 
     static void setToken(Context context, @Nullable String associatedAccessTokenUpdate, String antiCSRFToken) {
         if ( associatedAccessTokenUpdate == null ) {
-            antiCSRFTokenInfo = null;
             return;
         }
 
-        SharedPreferences sharedPreferences = getSharedPreferences(context);
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putString(getSharedPrefsAntiCSRFKey(context), antiCSRFToken);
-        editor.apply();
-
-        antiCSRFTokenInfo = new AntiCSRFTokenInfo(antiCSRFToken, associatedAccessTokenUpdate);
-    }
-
-    private static SharedPreferences getSharedPreferences(Context context) {
-        return context.getSharedPreferences(Constants.SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
-    }
-
-    private static String getSharedPrefsAntiCSRFKey(Context context) {
-        return Constants.CSRF_TOKEN_PREFS_KEY;
-    }
-
-    static class AntiCSRFTokenInfo {
-        String antiCSRF;
-        String associatedAccessTokenUpdate;
-
-        AntiCSRFTokenInfo(String antiCSRF, String associatedAccessTokenUpdate) {
-            this.antiCSRF = antiCSRF;
-            this.associatedAccessTokenUpdate = associatedAccessTokenUpdate;
-        }
+        new SessionUpdate().setAntiCSRF(antiCSRFToken).commit(context);
     }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the work of the asynchronous APIs on the executor set with {@code asyncExecutor} in
+ * {@link SuperTokens.Builder} (a pool of background threads by default).
+ *
+ * All callers that made their request with the same session share the refresh that is in flight for it, so no matter
+ * how many of them ask for a refresh at the same time only one thread is used and only one call is made to the
+ * refresh API. The refresh itself goes through
+ * {@link RefreshCoordinator}, so it is also merged with a refresh that a blocking request is doing.
+ */
+class AsyncOperations {
+    private static final Object lock = new Object();
+    private static SessionFuture<Utils.Unauthorised> inFlightRefresh;
+    // The last access token update of the session the in flight refresh was started for
+    @Nullable
+    private static String inFlightLastAccessTokenUpdate;
+    private static ExecutorService defaultExecutor;
+
+    static SessionFuture<Utils.Unauthorised> refresh(Context applicationContext, Utils.LocalSessionState preRequestLocalSessionState) {
+        return refresh(applicationContext, preRequestLocalSessionState, SuperTokensHttpURLConnection.refreshTransport);
+    }
+
+    // Like RefreshCoordinator, callers only share the refresh in flight if they saw the same session before their
+    // request. The transport is only used if no refresh is in flight for that session yet.
+    static SessionFuture<Utils.Unauthorised> refresh(
+            final Context applicationContext,
+            final Utils.LocalSessionState preRequestLocalSessionState,
+            final RefreshCoordinator.RefreshTransport transport
+    ) {
+        final SessionFuture<Utils.Unauthorised> future;
+        synchronized (lock) {
+            if (inFlightRefresh != null && !inFlightRefresh.isDone() && isForSession(preRequestLocalSessionState.lastAccessTokenUpdate)) {
+                return inFlightRefresh;
+            }
+
+            future = new SessionFuture<>(new Callable<Utils.Unauthorised>() {
+                @Override
+                public Utils.Unauthorised call() {
+                    return RefreshCoordinator.onUnauthorisedResponse(preRequestLocalSessionState, applicationContext, transport);
+                }
+            });
+            inFlightRefresh = future;
+            inFlightLastAccessTokenUpdate = preRequestLocalSessionState.lastAccessTokenUpdate;
+        }
+
+        execute(future);
+        return future;
+    }
+
+    private static boolean isForSession(@Nullable String lastAccessTokenUpdate) {
+        if (inFlightLastAccessTokenUpdate == null) {
+            return lastAccessTokenUpdate == null;
+        }
+
+        return inFlightLastAccessTokenUpdate.equals(lastAccessTokenUpdate);
+    }
+
+    static <T> SessionFuture<T> run(Callable<T> callable) {
+        SessionFuture<T> future = new SessionFuture<>(callable);
+        execute(future);
+        return future;
+    }
+
+    private static void execute(SessionFuture<?> future) {
+        try {
+            getExecutor().execute(future);
+        } catch (RuntimeException e) {
+            // The executor rejected the task
+            future.fail(e);
+        }
+    }
+
+    private static Executor getExecutor() {
+        Utils.NormalisedInputType config = SuperTokens.config;
+        if (config != null && config.asyncExecutor != null) {
+            return config.asyncExecutor;
+        }
+
+        synchronized (lock) {
+            if (defaultExecutor == null) {
+                defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "supertokens-session-async");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+
+            return defaultExecutor;
+        }
+    }
+}
@@ -11,4 +11,5 @@ class Constants {
     static final String LAST_ACCESS_TOKEN_UPDATE_PREFS_KEY = "st-last-access-token-update";
     static final String REFRESH_TOKEN_PREFS_KEY = "st-refresh-token";
     static final String ACCESS_TOKEN_PREFS_KEY = "st-access-token";
+    static final String STORAGE_ITEM_PREFIX = "st-storage-item-";
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Delivers session events to the {@link EventHandler} and the {@link SessionEventListener}s without blocking the
+ * thread that fired them.
+ *
+ * Events are often fired while the refresh lock or the front token lock is held, so calling the handler directly
+ * would make every other request wait for it. Instead events are queued and delivered in the order they were fired,
+ * one at a time, on the executor set with {@code eventExecutor} in {@link SuperTokens.Builder} (a single background
+ * thread by default). If the handler falls too far behind, the oldest events are dropped. If the executor rejects
+ * the task that delivers them, the queued events are dropped.
+ */
+class EventDispatcher {
+    static final int MAX_PENDING_EVENTS = 100;
+
+    private static final Object lock = new Object();
+    private static final ArrayDeque<PendingEvent> pendingEvents = new ArrayDeque<>();
+    private static boolean isDraining = false;
+    private static ExecutorService defaultExecutor;
+
+    private static class PendingEvent {
+        final EventHandler eventHandler;
+        final SessionEvent event;
+
+        PendingEvent(EventHandler eventHandler, SessionEvent event) {
+            this.eventHandler = eventHandler;
+            this.event = event;
+        }
+    }
+
+    static void dispatch(EventHandler.EventType eventType) {
+        dispatch(eventType, -1);
+    }
+
+    static void dispatch(EventHandler.EventType eventType, long refreshDurationMillis) {
+        Utils.NormalisedInputType config = SuperTokens.config;
+        if (config == null) {
+            return;
+        }
+
+        SessionEvent event = new SessionEvent(eventType, getCurrentTokenInfo(), refreshDurationMillis);
+
+        boolean shouldStartDraining;
+        synchronized (lock) {
+            if (pendingEvents.size() >= MAX_PENDING_EVENTS) {
+                PendingEvent dropped = pendingEvents.removeFirst();
+                Logger.log("SuperTokens: the event handler is too slow, dropping the " + dropped.event.getType() + " event");
+            }
+
+            pendingEvents.addLast(new PendingEvent(config.eventHandler, event));
+            shouldStartDraining = !isDraining;
+            isDraining = true;
+        }
+
+        if (shouldStartDraining) {
+            Executor executor = getExecutor(config);
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // The executor rejected the task (for example because the app shut it down). Nothing would deliver the
+                // queued events and we may be holding the SDK's locks, so they cannot be delivered on this thread either
+                int droppedCount;
+                synchronized (lock) {
+                    droppedCount = pendingEvents.size();
+                    pendingEvents.clear();
+                    isDraining = false;
+                }
+                Logger.log("SuperTokens: the event executor rejected the task, dropping " + droppedCount + " session event(s)");
+            }
+        }
+    }
+
+    // Only one drain runs at a time, which keeps the events in order even if the executor has many threads
+    private static void drain() {
+        while (true) {
+            PendingEvent event;
+            synchronized (lock) {
+                event = pendingEvents.pollFirst();
+                if (event == null) {
+                    isDraining = false;
+                    return;
+                }
+            }
+
+            try {
+                event.eventHandler.handleEvent(event.event.getType());
+            } catch (RuntimeException e) {
+                onDeliveryError(event.event, e);
+            }
+
+            for (SessionEventListener listener : SuperTokens.sessionEventListeners) {
+                try {
+                    listener.onSessionEvent(event.event);
+                } catch (RuntimeException e) {
+                    onDeliveryError(event.event, e);
+                }
+            }
+        }
+    }
+
+    // Drops the events that were not delivered yet, used when the SDK is reset between tests
+    static void reset() {
+        synchronized (lock) {
+            pendingEvents.clear();
+            isDraining = false;
+        }
+    }
+
+    // An error in the app's handler or listeners should not stop the events after it from being delivered
+    private static void onDeliveryError(SessionEvent event, RuntimeException e) {
+        Logger.log("SuperTokens: an event handler threw an error while handling " + event.getType(), e);
+    }
+
+    // The decoded front token is only needed if there is a listener to give it to
+    @Nullable
+    private static FrontToken.TokenInfo getCurrentTokenInfo() {
+        Context applicationContext = SuperTokens.contextWeakReference == null ? null : SuperTokens.contextWeakReference.get();
+        if (applicationContext == null || SuperTokens.sessionEventListeners.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return FrontToken.getStoredTokenInfo(applicationContext);
+        } catch (IllegalStateException e) {
+            // The stored front token could not be decoded
+            return null;
+        }
+    }
+
+    // The executor that events and session state changes are delivered on
+    static Executor getExecutor(Utils.NormalisedInputType config) {
+        return config.eventExecutor != null ? config.eventExecutor : getDefaultExecutor();
+    }
+
+    private static synchronized Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "supertokens-session-events");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return defaultExecutor;
+    }
+}
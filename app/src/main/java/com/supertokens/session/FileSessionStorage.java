@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link SessionStorage} backed by an append-only log file.
+ *
+ * Every {@link Editor#apply()} appends a single checksummed record containing all the changes of that editor,
+ * so applying an update costs one sequential write regardless of how many keys it touches. A record that was
+ * only partially written (for example because the process died) is discarded the next time the file is read.
+ * The log is compacted into a single record once it grows much larger than the data it holds.
+ *
+ * If {@code syncOnApply} is true the file is fsync-ed after every apply, which guarantees the change survives
+ * a power loss at the cost of latency. If it is false the change is only handed to the OS.
+ */
+public class FileSessionStorage implements SessionStorage {
+    private static final int FILE_MAGIC = 0x53545353; // "STSS"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    // The body length before and the checksum after the body of every record
+    private static final int RECORD_OVERHEAD = 12;
+    private static final byte OPERATION_PUT = 1;
+    private static final byte OPERATION_REMOVE = 2;
+    // The log is only compacted when it is larger than this, and larger than COMPACTION_RATIO times the live data
+    private static final long COMPACTION_MIN_BYTES = 64 * 1024;
+    private static final int COMPACTION_RATIO = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final boolean syncOnApply;
+    private final Map<String, String> values = new HashMap<>();
+    // Null once a failed append could not be undone, appending after a broken record would lose every later record
+    @Nullable
+    private FileOutputStream outputStream;
+    private long logLength;
+
+    public FileSessionStorage(File file) {
+        this(file, true);
+    }
+
+    public FileSessionStorage(File file, boolean syncOnApply) {
+        this.file = file;
+        this.syncOnApply = syncOnApply;
+
+        try {
+            load();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the session storage file " + file.getPath(), e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public synchronized String getString(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public SessionStorage.Editor edit() {
+        return new Editor();
+    }
+
+    private synchronized void applyChanges(Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        try {
+            appendRecord(changes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write to the session storage file " + file.getPath(), e);
+        }
+
+        applyToValues(changes);
+
+        if (logLength > COMPACTION_MIN_BYTES && logLength > COMPACTION_RATIO * estimateLiveLength()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // The log is still valid, we will try compacting again after the next apply
+            }
+        }
+    }
+
+    private void applyToValues(Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                values.remove(change.getKey());
+            } else {
+                values.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (!file.exists() || file.length() < HEADER_LENGTH) {
+            rewrite(values);
+            return;
+        }
+
+        long validLength = HEADER_LENGTH;
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (inputStream.readInt() != FILE_MAGIC || inputStream.readInt() != FILE_VERSION) {
+                // Not a file we understand, start with an empty session instead of failing every request
+                inputStream.close();
+                rewrite(values);
+                return;
+            }
+
+            while (true) {
+                byte[] body = readRecordBody(inputStream, file.length() - validLength);
+                if (body == null) {
+                    break;
+                }
+
+                applyToValues(decodeRecordBody(body));
+                validLength += RECORD_OVERHEAD + body.length;
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        // Drop anything after the last complete record so that new records are appended to a valid log
+        if (validLength != file.length()) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(validLength);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        logLength = validLength;
+        outputStream = new FileOutputStream(file, true);
+    }
+
+    // Returns null if the end of the log was reached or the next record is incomplete or corrupted
+    @Nullable
+    private static byte[] readRecordBody(DataInputStream inputStream, long remainingLength) throws IOException {
+        byte[] body;
+        long checksum;
+        try {
+            int bodyLength = inputStream.readInt();
+            if (bodyLength < 0 || bodyLength > remainingLength) {
+                return null;
+            }
+
+            body = new byte[bodyLength];
+            inputStream.readFully(body);
+            checksum = inputStream.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        if (checksum(body) != checksum) {
+            return null;
+        }
+
+        return body;
+    }
+
+    private static Map<String, String> decodeRecordBody(byte[] body) throws IOException {
+        DataInputStream bodyStream = new DataInputStream(new ByteArrayInputStream(body));
+        int changeCount = bodyStream.readInt();
+        Map<String, String> changes = new LinkedHashMap<>();
+        for (int i = 0; i < changeCount; i++) {
+            byte operation = bodyStream.readByte();
+            String key = readString(bodyStream);
+            changes.put(key, operation == OPERATION_PUT ? readString(bodyStream) : null);
+        }
+
+        return changes;
+    }
+
+    private void appendRecord(Map<String, String> changes) throws IOException {
+        if (outputStream == null) {
+            throw new IOException("A previous write to " + file.getPath() + " could not be undone");
+        }
+
+        byte[] record = encodeRecord(changes);
+        try {
+            outputStream.write(record);
+            outputStream.flush();
+            if (syncOnApply) {
+                outputStream.getFD().sync();
+            }
+        } catch (IOException e) {
+            discardPartialRecord();
+            throw e;
+        }
+        logLength += record.length;
+    }
+
+    // The next load stops at a partly written record, so it is cut off before anything else is appended. If that
+    // fails the log is written again from the values, which do not contain the failed changes.
+    private void discardPartialRecord() {
+        FileOutputStream previousStream = outputStream;
+        try {
+            previousStream.getChannel().truncate(logLength);
+            return;
+        } catch (IOException e) {
+            // Rewrite the log below
+        }
+
+        try {
+            rewrite(values);
+        } catch (IOException e) {
+            outputStream = null;
+        }
+
+        try {
+            previousStream.close();
+        } catch (IOException e) {
+            // Nothing more can be written to it anyway
+        }
+    }
+
+    private void compact() throws IOException {
+        // The current stream is only closed once the compacted file replaced the log, if rewriting fails we keep
+        // appending to the existing log
+        FileOutputStream previousStream = outputStream;
+        rewrite(values);
+        previousStream.close();
+    }
+
+    // Writes a fresh log containing only the given values, atomically replaces the current file with it and
+    // switches outputStream to the new file. The stream used to write the new log is kept open for appending, so
+    // the file can never be replaced without outputStream pointing to it.
+    private void rewrite(Map<String, String> snapshot) throws IOException {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileOutputStream temporaryStream = new FileOutputStream(temporaryFile);
+        long length = HEADER_LENGTH;
+        try {
+            DataOutputStream dataOutputStream = new DataOutputStream(temporaryStream);
+            dataOutputStream.writeInt(FILE_MAGIC);
+            dataOutputStream.writeInt(FILE_VERSION);
+            if (!snapshot.isEmpty()) {
+                byte[] record = encodeRecord(snapshot);
+                dataOutputStream.write(record);
+                length += record.length;
+            }
+            dataOutputStream.flush();
+            if (syncOnApply) {
+                temporaryStream.getFD().sync();
+            }
+
+            if (!temporaryFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file.getPath());
+            }
+        } catch (IOException e) {
+            temporaryStream.close();
+            throw e;
+        }
+
+        logLength = length;
+        outputStream = temporaryStream;
+    }
+
+    private static byte[] encodeRecord(Map<String, String> changes) throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        body.writeInt(changes.size());
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            body.writeByte(change.getValue() == null ? OPERATION_REMOVE : OPERATION_PUT);
+            writeString(body, change.getKey());
+            if (change.getValue() != null) {
+                writeString(body, change.getValue());
+            }
+        }
+        body.flush();
+        byte[] bodyArray = bodyBytes.toByteArray();
+
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(bodyArray.length + RECORD_OVERHEAD);
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeInt(bodyArray.length);
+        record.write(bodyArray);
+        record.writeLong(checksum(bodyArray));
+        record.flush();
+        return recordBytes.toByteArray();
+    }
+
+    private long estimateLiveLength() {
+        long length = 0;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            length += 9 + entry.getKey().length() + entry.getValue().length();
+        }
+        return length;
+    }
+
+    private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private static String readString(DataInputStream inputStream) throws IOException {
+        byte[] bytes = new byte[inputStream.readInt()];
+        inputStream.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return crc32.getValue();
+    }
+
+    private class Editor implements SessionStorage.Editor {
+        // A null value means the key should be removed
+        private final Map<String, String> changes = new LinkedHashMap<>();
+
+        @Override
+        public SessionStorage.Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SessionStorage.Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            applyChanges(changes);
+            changes.clear();
+        }
+    }
+}
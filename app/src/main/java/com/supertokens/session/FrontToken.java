@@ -17,30 +17,24 @@
 package com.supertokens.session;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.util.Base64;
 
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.nio.charset.Charset;
+import java.util.Iterator;
 
 public class FrontToken {
     static final Object tokenLock = new Object();
-    private static String frontTokenInMemory;
     private static final String FRONT_TOKEN_NAME = "sFrontToken";
 
     private static String getFrontTokenFromStorage(Context context) {
-        if (frontTokenInMemory == null) {
-            frontTokenInMemory = Utils.getSharedPreferences(context).getString(Constants.FRONT_TOKEN_PREFS_KEY, null);
-        }
-
-        // If it is still null then there was no value in storage
-        if (frontTokenInMemory == null) {
-            return null;
-        }
-
-        return frontTokenInMemory;
+        // If this is null then there was no value in storage
+        return TokenCache.get(context).frontToken;
     }
 
     private static String getFrontToken(Context context) {
@@ -51,16 +45,123 @@ public class FrontToken {
         return getFrontTokenFromStorage(context);
     }
 
-    private static JSONObject parseFrontToken(String frontTokenDecoded) {
-        try {
-            JSONObject jsonObject = new JSONObject(new String(Base64.decode(frontTokenDecoded, Base64.DEFAULT), Charset.forName("UTF-8")));
-            return jsonObject;
-        } catch (JSONException e) {
-            throw new IllegalStateException(e);
+    // The parsed version of the current front token, it is replaced whenever the stored front token changes
+    // so that reading the token info does not need to decode it every time
+    private static volatile TokenInfo tokenInfoInMemory;
+
+    /**
+     * An immutable, already decoded version of a front token. The token is parsed once, the payload and the
+     * token returned by the public methods are copies of the parsed objects.
+     */
+    public static final class TokenInfo {
+        final String frontToken;
+        final String userId;
+        final long accessTokenExpiry;
+        // Never modified and never handed out, so it can be read from any thread
+        private final JSONObject token;
+        // Only needed to compare payloads when the front token changes
+        @Nullable
+        private volatile String payloadString;
+
+        private TokenInfo(String frontToken, JSONObject token) throws JSONException {
+            this.frontToken = frontToken;
+            this.token = token;
+            this.userId = token.getString("uid");
+            this.accessTokenExpiry = token.getLong("ate");
+        }
+
+        static TokenInfo parse(String frontToken) {
+            try {
+                return new TokenInfo(frontToken, new JSONObject(new String(Base64.decode(frontToken, Base64.DEFAULT), Charset.forName("UTF-8"))));
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        // The time (in milliseconds since the epoch) the access token expires at
+        public long getAccessTokenExpiry() {
+            return accessTokenExpiry;
+        }
+
+        // Returns a new object on every call so that callers cannot modify the cached token
+        public JSONObject getPayload() {
+            try {
+                return (JSONObject) copy(token.getJSONObject("up"));
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        JSONObject toJSONObject() {
+            try {
+                return (JSONObject) copy(token);
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        boolean hasSamePayload(TokenInfo other) {
+            return getPayloadString().equals(other.getPayloadString());
+        }
+
+        private String getPayloadString() {
+            String current = payloadString;
+            if (current == null) {
+                current = String.valueOf(token.opt("up"));
+                payloadString = current;
+            }
+            return current;
+        }
+
+        // Copies nested objects and arrays as well, which is cheaper than parsing the token again
+        private static Object copy(Object value) throws JSONException {
+            if (value instanceof JSONObject) {
+                JSONObject source = (JSONObject) value;
+                JSONObject result = new JSONObject();
+                Iterator<String> keys = source.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    result.put(key, copy(source.get(key)));
+                }
+                return result;
+            }
+
+            if (value instanceof JSONArray) {
+                JSONArray source = (JSONArray) value;
+                JSONArray result = new JSONArray();
+                for (int i = 0; i < source.length(); i++) {
+                    result.put(copy(source.opt(i)));
+                }
+                return result;
+            }
+
+            return value;
+        }
+    }
+
+    static TokenInfo getParsedFrontToken(String frontToken) {
+        TokenInfo tokenInfo = tokenInfoInMemory;
+        // The stored token only changes through SessionUpdate, which refreshes tokenInfoInMemory, so this
+        // only parses the token if it was loaded from storage and has not been read yet
+        if (tokenInfo == null || !tokenInfo.frontToken.equals(frontToken)) {
+            tokenInfo = TokenInfo.parse(frontToken);
+            tokenInfoInMemory = tokenInfo;
         }
+        return tokenInfo;
+    }
+
+    // Returns the parsed front token that is currently stored, without waiting for an ongoing update
+    @Nullable
+    static TokenInfo getStoredTokenInfo(Context context) {
+        String frontToken = getFrontTokenFromStorage(context);
+        return frontToken == null ? null : getParsedFrontToken(frontToken);
     }
 
-    static JSONObject getTokenInfo(Context context) {
+    static TokenInfo getTokenInfo(Context context) {
         synchronized (tokenLock) {
             while (true) {
                 String frontToken = getFrontToken(context);
@@ -74,68 +175,49 @@ public class FrontToken {
                         return null;
                     }
                 } else {
-                    return parseFrontToken(frontToken);
+                    return getParsedFrontToken(frontToken);
                 }
             }
         }
     }
 
     public static JSONObject getToken(Context context) throws JSONException {
-        return getTokenInfo(context);
-    }
+        TokenInfo tokenInfo = getTokenInfo(context);
+        if (tokenInfo == null) {
+            return null;
+        }
 
-    private static void setFrontTokenToStorage(Context context, String frontToken) {
-        SharedPreferences.Editor editor = Utils.getSharedPreferences(context).edit();
-        editor.putString(Constants.FRONT_TOKEN_PREFS_KEY, frontToken);
-        editor.apply();
-        frontTokenInMemory = frontToken;
+        return tokenInfo.toJSONObject();
     }
 
-    private static void setFrontToken(Context context, String frontToken) {
-        String oldToken = getFrontTokenFromStorage(context);
-
-        if (oldToken != null && frontToken != null) {
-            try {
-                JSONObject oldPayload = parseFrontToken(oldToken).getJSONObject("up");
-                JSONObject newPayload = parseFrontToken(frontToken).getJSONObject("up");
-
-                if (!oldPayload.toString().equals(newPayload.toString())) {
-                    SuperTokens.config.eventHandler.handleEvent(EventHandler.EventType.ACCESS_TOKEN_PAYLOAD_UPDATED);
-                }
-            } catch (JSONException e) {
-                throw new IllegalStateException(e);
-            }
+    // Called by SessionUpdate while holding tokenLock, after the new front token has been stored
+    static void onFrontTokenChanged(@Nullable String oldToken, @Nullable String newToken) {
+        if (newToken == null) {
+            tokenInfoInMemory = null;
+            SessionStateStore.onFrontTokenChanged(null);
+            ProactiveRefreshScheduler.onSessionChanged(null);
+            return;
         }
 
-        setFrontTokenToStorage(context, frontToken);
-    }
+        TokenInfo oldTokenInfo = oldToken == null ? null : getParsedFrontToken(oldToken);
+        TokenInfo newTokenInfo = TokenInfo.parse(newToken);
+        tokenInfoInMemory = newTokenInfo;
+        SessionStateStore.onFrontTokenChanged(newTokenInfo);
+        ProactiveRefreshScheduler.onSessionChanged(newTokenInfo);
 
-    private static void removeTokenFromStorage(Context context) {
-        SharedPreferences.Editor editor = Utils.getSharedPreferences(context).edit();
-        editor.remove(Constants.FRONT_TOKEN_PREFS_KEY);
-        editor.apply();
-        frontTokenInMemory = null;
+        if (oldTokenInfo != null && !oldTokenInfo.hasSamePayload(newTokenInfo)) {
+            EventDispatcher.dispatch(EventHandler.EventType.ACCESS_TOKEN_PAYLOAD_UPDATED);
+        }
     }
 
     public static void removeToken(Context context) {
-        AntiCSRF.removeToken(context);
-        synchronized (tokenLock) {
-            removeTokenFromStorage(context);
-            // We are clearing all stored tokens here, because:
-            // 1. removing FrontToken signals that the session is being cleared
-            // 2. you can only have a single active session - this means that all tokens can be cleared from all auth-modes if one is being cleared
-            // 3. some proxies remove the empty headers used to clear the other tokens (i.e.: https://github.com/supertokens/supertokens-website/issues/218)
-            Utils.setToken(Utils.TokenType.ACCESS, "", context);
-            Utils.setToken(Utils.TokenType.REFRESH, "", context);
-            tokenLock.notifyAll();
-        }
+        // The anti-csrf token, the front token and the access and refresh tokens are all removed in one
+        // storage transaction, check SessionUpdate.removeSession for why all of them are cleared
+        new SessionUpdate().removeSession().commit(context);
     }
 
     public static void setToken(Context context, String frontToken) {
-        synchronized (tokenLock) {
-            setFrontToken(context, frontToken);
-            tokenLock.notifyAll();
-        }
+        new SessionUpdate().setFrontToken(frontToken).commit(context);
     }
 
     public static void setItem(Context context, String frontToken) {
@@ -145,13 +227,7 @@ public class FrontToken {
         // another request has failed with a 401 with the previous access token and the token still exists.
         // Check the start and end of onUnauthorisedResponse
         // As a side-effect we reload the anti-csrf token to check if it was changed by another tab.
-        Utils.saveLastAccessTokenUpdate(context);
-        if (frontToken.equalsIgnoreCase("remove")) {
-            FrontToken.removeToken(context);
-            return;
-        }
-
-        FrontToken.setFrontToken(context, frontToken);
+        new SessionUpdate().setFrontTokenItem(frontToken).commit(context);
     }
 
     public static boolean doesTokenExist(Context context) {
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link SessionStorage} that only keeps the session in memory. The session is lost when the process dies.
+ *
+ * This is mainly meant for tests and benchmarks, it does not depend on any Android APIs.
+ */
+public class InMemorySessionStorage implements SessionStorage {
+    private final Map<String, String> values = new HashMap<>();
+
+    @Nullable
+    @Override
+    public synchronized String getString(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public SessionStorage.Editor edit() {
+        return new Editor();
+    }
+
+    private synchronized void applyChanges(Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                values.remove(change.getKey());
+            } else {
+                values.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    private class Editor implements SessionStorage.Editor {
+        // A null value means the key should be removed
+        private final Map<String, String> changes = new LinkedHashMap<>();
+
+        @Override
+        public SessionStorage.Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SessionStorage.Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            applyChanges(changes);
+            changes.clear();
+        }
+    }
+}
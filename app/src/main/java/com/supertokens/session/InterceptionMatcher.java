@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import androidx.annotation.Nullable;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Decides if requests to a host should be intercepted, based on the apiDomain and sessionTokenBackendDomain.
+ *
+ * Both domains are normalised once when the matcher is created (in SuperTokens.init), so matching a host
+ * only compares strings and does not allocate.
+ */
+class InterceptionMatcher {
+    // The host of apiDomain, null if no apiDomain was provided
+    @Nullable
+    private final String apiHost;
+    // The host of sessionTokenBackendDomain without the leading dot, null if it was not provided
+    @Nullable
+    private final String sessionTokenBackendHost;
+
+    private InterceptionMatcher(@Nullable String apiHost, @Nullable String sessionTokenBackendHost) {
+        this.apiHost = apiHost;
+        this.sessionTokenBackendHost = sessionTokenBackendHost;
+    }
+
+    static InterceptionMatcher create(String apiDomain, @Nullable String sessionTokenBackendDomain) throws MalformedURLException {
+        String apiHost = null;
+        if (!apiDomain.equals("")) {
+            apiHost = stripIPv6Brackets(new URL(new NormalisedURLDomain(apiDomain).getAsStringDangerous()).getHost());
+        }
+
+        String sessionTokenBackendHost = null;
+        if (sessionTokenBackendDomain != null) {
+            sessionTokenBackendHost = Utils.NormalisedInputType.normaliseSessionScopeOrThrowError(sessionTokenBackendDomain);
+            // A leading dot makes no difference here, subdomains are always matched
+            if (sessionTokenBackendHost.startsWith(".")) {
+                sessionTokenBackendHost = sessionTokenBackendHost.substring(1);
+            }
+            sessionTokenBackendHost = stripIPv6Brackets(sessionTokenBackendHost);
+        }
+
+        return new InterceptionMatcher(apiHost, sessionTokenBackendHost);
+    }
+
+    // The host is expected without brackets for IPv6 addresses, which is how OkHttp's HttpUrl.host() returns it
+    boolean shouldDoInterception(String host) {
+        if (apiHost != null && apiHost.equalsIgnoreCase(host)) {
+            return true;
+        }
+
+        return sessionTokenBackendHost != null && isDomainOrSubdomain(host, sessionTokenBackendHost);
+    }
+
+    // Returns true if host is domain or ends with "." + domain
+    private static boolean isDomainOrSubdomain(String host, String domain) {
+        int prefixLength = host.length() - domain.length();
+        if (prefixLength < 0 || !host.regionMatches(true, prefixLength, domain, 0, domain.length())) {
+            return false;
+        }
+
+        return prefixLength == 0 || host.charAt(prefixLength - 1) == '.';
+    }
+
+    static String stripIPv6Brackets(String host) {
+        if (host.length() > 1 && host.charAt(0) == '[' && host.charAt(host.length() - 1) == ']') {
+            return host.substring(1, host.length() - 1);
+        }
+
+        return host;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Writes the SDK's messages to stderr. Everything the SDK prints goes through here so that apps can turn it off with
+ * SuperTokens.Builder.loggingEnabled.
+ */
+class Logger {
+    private static volatile boolean enabled = true;
+
+    static void setEnabled(boolean enabled) {
+        Logger.enabled = enabled;
+    }
+
+    static void log(String message) {
+        log(message, null);
+    }
+
+    static void log(String message, @Nullable Throwable e) {
+        if (!enabled) {
+            return;
+        }
+        System.err.println(message);
+        if (e != null) {
+            e.printStackTrace();
+        }
+    }
+}
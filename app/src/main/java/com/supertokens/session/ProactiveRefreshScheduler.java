@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.net.CookieHandler;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the session in the background shortly before the access token expires.
+ *
+ * This is only enabled if {@code proactiveRefreshMarginMillis} is set in {@link SuperTokens.Builder}. A refresh is
+ * scheduled for the access token expiry ({@code ate} in the front token) minus the margin, and is rescheduled every
+ * time the front token changes. Nothing is scheduled while no session exists.
+ *
+ * The refresh goes through {@link RefreshCoordinator} so it is merged with any refresh that requests trigger at the
+ * same time. If the app's OkHttp client is known it is used for the refresh, so the refresh has the same cookies,
+ * certificate pinning, proxy and so on as the refreshes that requests trigger. This is the case when a
+ * {@link SuperTokensInterceptor} with a refresh client, a {@link SuperTokensAuthenticator} or a
+ * {@link SuperTokensCallFactory} was created. Otherwise the refresh is made with HttpURLConnection, so if cookie based
+ * auth is used the session cookies need to be available through {@link java.net.CookieHandler#getDefault()}. If they
+ * are not, no background refresh is made and the session is refreshed when a request fails instead.
+ */
+class ProactiveRefreshScheduler {
+    // How long to wait before trying again if a background refresh fails because of a network or API error, the delay
+    // is doubled after every consecutive failure up to MAX_RETRY_DELAY_MILLIS
+    static final long RETRY_DELAY_MILLIS = 30 * 1000;
+    static final long MAX_RETRY_DELAY_MILLIS = 10 * 60 * 1000;
+
+    private static final Object lock = new Object();
+    private static ScheduledExecutorService executor;
+    private static ScheduledFuture<?> scheduledRefresh;
+    private static int consecutiveFailures = 0;
+    // True while a background refresh is running, a front token set during that time comes from the refresh
+    private static volatile boolean isRefreshing = false;
+    // Calls the refresh API with the app's OkHttp client, null if the app did not create an OkHttp class that knows it
+    @Nullable
+    private static volatile RefreshCoordinator.RefreshTransport refreshTransport;
+
+    // Called by the OkHttp classes with a transport that uses the client they refresh the session with
+    static void setRefreshTransport(RefreshCoordinator.RefreshTransport transport) {
+        synchronized (lock) {
+            refreshTransport = transport;
+        }
+    }
+
+    // Like setRefreshTransport, but a transport that was already set is kept
+    static void setDefaultRefreshTransport(RefreshCoordinator.RefreshTransport transport) {
+        synchronized (lock) {
+            if (refreshTransport == null) {
+                refreshTransport = transport;
+            }
+        }
+    }
+
+    // Called with the new front token every time it changes, and with null when the session is removed
+    static void onSessionChanged(@Nullable FrontToken.TokenInfo tokenInfo) {
+        Utils.NormalisedInputType config = SuperTokens.config;
+        if (config == null || config.proactiveRefreshMarginMillis == null) {
+            return;
+        }
+
+        if (tokenInfo == null) {
+            cancel();
+            return;
+        }
+
+        long delay = tokenInfo.accessTokenExpiry - config.proactiveRefreshMarginMillis - System.currentTimeMillis();
+        if (delay <= 0 && isRefreshing) {
+            // The token we just received is already within the margin (the margin is at least as long as the access
+            // token lifetime, or the device clock is off), refreshing again would only get us another such token
+            Logger.log("SuperTokens: The access token received from the refresh API expires within proactiveRefreshMarginMillis, " +
+                    "no background refresh is scheduled for it. Make sure proactiveRefreshMarginMillis is shorter than the access token lifetime.");
+            cancel();
+            return;
+        }
+
+        synchronized (lock) {
+            consecutiveFailures = 0;
+        }
+        schedule(Math.max(0, delay));
+    }
+
+    static void reset() {
+        cancel();
+        synchronized (lock) {
+            refreshTransport = null;
+            consecutiveFailures = 0;
+        }
+    }
+
+    static void cancel() {
+        synchronized (lock) {
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
+            }
+        }
+    }
+
+    private static void schedule(long delayMillis) {
+        synchronized (lock) {
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+            }
+
+            scheduledRefresh = getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void refresh() {
+        Context applicationContext = SuperTokens.contextWeakReference == null ? null : SuperTokens.contextWeakReference.get();
+        if (!SuperTokens.isInitCalled || applicationContext == null) {
+            return;
+        }
+
+        Utils.LocalSessionState localSessionState = Utils.getLocalSessionState(applicationContext);
+        if (localSessionState.status == Utils.LocalSessionStateStatus.NOT_EXISTS) {
+            return;
+        }
+
+        RefreshCoordinator.RefreshTransport transport = refreshTransport;
+        if (transport == null && SuperTokens.config.tokenTransferMethod.equals("cookie") && !hasRefreshCookies()) {
+            Logger.log("SuperTokens: proactiveRefreshMarginMillis is ignored because the session cookies are not available " +
+                    "through CookieHandler.getDefault(), the session will be refreshed when a request fails instead.");
+            return;
+        }
+
+        Utils.Unauthorised response;
+        isRefreshing = true;
+        try {
+            if (transport != null) {
+                response = RefreshCoordinator.onUnauthorisedResponse(localSessionState, applicationContext, transport);
+            } else {
+                response = SuperTokensHttpURLConnection.onUnauthorisedResponse(localSessionState, applicationContext);
+            }
+        } finally {
+            isRefreshing = false;
+        }
+
+        // A successful refresh sets a new front token, which schedules the next refresh. If the session expired
+        // the front token was removed, which cancels it. Only errors need to be retried from here.
+        if (response.status == Utils.Unauthorised.UnauthorisedStatus.API_ERROR) {
+            long delay;
+            synchronized (lock) {
+                delay = getRetryDelay(consecutiveFailures);
+                consecutiveFailures++;
+            }
+            schedule(delay);
+        }
+    }
+
+    private static long getRetryDelay(int consecutiveFailures) {
+        long delay = RETRY_DELAY_MILLIS;
+        for (int i = 0; i < consecutiveFailures && delay < MAX_RETRY_DELAY_MILLIS; i++) {
+            delay *= 2;
+        }
+
+        return Math.min(delay, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    // Without an OkHttp client the refresh is made with HttpURLConnection, which only sends the cookies that the
+    // default CookieHandler has
+    private static boolean hasRefreshCookies() {
+        CookieHandler cookieHandler = CookieHandler.getDefault();
+        if (cookieHandler == null) {
+            return false;
+        }
+
+        try {
+            Map<String, List<String>> headers = cookieHandler.get(new URI(SuperTokens.refreshTokenUrl), new HashMap<String, List<String>>());
+            List<String> cookies = headers.get("Cookie");
+            return cookies != null && !cookies.isEmpty();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "supertokens-session-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return executor;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Coordinates session refreshes for all the transports (OkHttp and HttpURLConnection).
+ *
+ * All transports share a single {@link #refreshAPILock}, and concurrent refresh attempts that were triggered by
+ * requests made with the same session (the same last access token update) are merged into a single call to the
+ * refresh API. This makes sure that an app that uses both transports at the same time never calls the refresh
+ * API twice for the same session.
+ */
+class RefreshCoordinator {
+    static final ReentrantReadWriteLock refreshAPILock = new ReentrantReadWriteLock();
+
+    private static final Object flightLock = new Object();
+    // Only changed while holding the write lock of refreshAPILock
+    private static volatile int refreshCount = 0;
+    private static Flight currentFlight;
+
+    /**
+     * Implemented by each transport to make the actual call to the refresh API.
+     */
+    interface RefreshTransport {
+        // Calls the refresh API, saves the tokens from the response and returns the parts of the response
+        // that are needed to decide what to do next. Any error is treated as an API error.
+        RefreshResponse callRefreshAPI(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext) throws Exception;
+    }
+
+    static class RefreshResponse {
+        final int code;
+        @Nullable
+        final String message;
+        @Nullable
+        final String frontTokenHeader;
+
+        RefreshResponse(int code, @Nullable String message, @Nullable String frontTokenHeader) {
+            this.code = code;
+            this.message = message;
+            this.frontTokenHeader = frontTokenHeader;
+        }
+    }
+
+    // A refresh attempt that other callers with the same pre request session can wait for
+    private static class Flight {
+        @Nullable
+        final String lastAccessTokenUpdate;
+        final CountDownLatch done = new CountDownLatch(1);
+        Utils.Unauthorised result;
+
+        Flight(@Nullable String lastAccessTokenUpdate) {
+            this.lastAccessTokenUpdate = lastAccessTokenUpdate;
+        }
+
+        boolean isForSession(@Nullable String lastAccessTokenUpdate) {
+            if (this.lastAccessTokenUpdate == null) {
+                return lastAccessTokenUpdate == null;
+            }
+
+            return this.lastAccessTokenUpdate.equals(lastAccessTokenUpdate);
+        }
+
+        Utils.Unauthorised await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            return result;
+        }
+    }
+
+    static Utils.Unauthorised onUnauthorisedResponse(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext, RefreshTransport transport) {
+        // If this thread is already refreshing (for example an event handler called attemptRefreshingSession)
+        // waiting for the flight would never finish, the write lock is reentrant so we simply refresh again
+        if (refreshAPILock.isWriteLockedByCurrentThread()) {
+            return refresh(preRequestLocalSessionState, applicationContext, transport);
+        }
+
+        Flight flight;
+        boolean isLeader = false;
+        synchronized (flightLock) {
+            if (currentFlight != null && currentFlight.isForSession(preRequestLocalSessionState.lastAccessTokenUpdate)) {
+                flight = currentFlight;
+            } else {
+                flight = new Flight(preRequestLocalSessionState.lastAccessTokenUpdate);
+                currentFlight = flight;
+                isLeader = true;
+            }
+        }
+
+        if (!isLeader) {
+            return flight.await();
+        }
+
+        Utils.Unauthorised result = null;
+        try {
+            result = refresh(preRequestLocalSessionState, applicationContext, transport);
+            return result;
+        } finally {
+            if (result == null) {
+                // refresh only lets unchecked exceptions escape, the callers waiting for us still need a result
+                result = new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.API_ERROR, new IOException("Session refresh failed"));
+            }
+
+            synchronized (flightLock) {
+                if (currentFlight == flight) {
+                    currentFlight = null;
+                }
+            }
+
+            flight.result = result;
+            flight.done.countDown();
+        }
+    }
+
+    private static Utils.Unauthorised refresh(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext, RefreshTransport transport) {
+        // this is intentionally not put in a loop because the loop in other projects is because locking has a timeout
+        try {
+            refreshAPILock.writeLock().lock();
+            Utils.LocalSessionState postLockLocalSessionState = Utils.getLocalSessionState(applicationContext);
+            if (postLockLocalSessionState.status == Utils.LocalSessionStateStatus.NOT_EXISTS) {
+                EventDispatcher.dispatch(EventHandler.EventType.UNAUTHORISED);
+                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.SESSION_EXPIRED);
+            }
+
+            if ( postLockLocalSessionState.status != preRequestLocalSessionState.status ||
+                    (postLockLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS &&
+                            preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS &&
+                            postLockLocalSessionState.lastAccessTokenUpdate != preRequestLocalSessionState.lastAccessTokenUpdate) ) {
+                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.RETRY);
+            }
+
+            // Counted before the call, since a failed call may still have changed the session
+            refreshCount++;
+            long refreshStartTime = System.nanoTime();
+            RefreshResponse refreshResponse = transport.callRefreshAPI(preRequestLocalSessionState, applicationContext);
+            long refreshDurationMillis = (System.nanoTime() - refreshStartTime) / 1000000;
+
+            boolean isUnauthorised = refreshResponse.code == SuperTokens.config.sessionExpiredStatusCode;
+
+            if (isUnauthorised && refreshResponse.frontTokenHeader != null) {
+                FrontToken.setItem(applicationContext, "remove");
+            }
+
+            Utils.fireSessionUpdateEventsIfNecessary(
+                    preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS,
+                    refreshResponse.code,
+                    refreshResponse.frontTokenHeader == null ? "remove" : refreshResponse.frontTokenHeader
+            );
+
+            if (refreshResponse.code < 200 || refreshResponse.code >= 300) {
+                throw new IOException(refreshResponse.message);
+            }
+
+            if (Utils.getLocalSessionState(applicationContext).status == Utils.LocalSessionStateStatus.NOT_EXISTS) {
+                // The execution should never come here.. but just in case.
+                // removed by server. So we logout
+                // we do not send "UNAUTHORISED" event here because
+                // this is a result of the refresh API returning a session expiry, which
+                // means that the frontend did not know for sure that the session existed
+                // in the first place.
+                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.SESSION_EXPIRED);
+            }
+
+            EventDispatcher.dispatch(EventHandler.EventType.REFRESH_SESSION, refreshDurationMillis);
+            return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.RETRY);
+        } catch (Exception e) {
+            IOException ioe = new IOException(e);
+            if (e instanceof IOException) {
+                ioe = (IOException) e;
+            }
+
+            if (Utils.getLocalSessionState(applicationContext).status == Utils.LocalSessionStateStatus.NOT_EXISTS) {
+                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.SESSION_EXPIRED);
+            }
+
+            return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.API_ERROR, ioe);
+        } finally {
+            refreshAPILock.writeLock().unlock();
+        }
+    }
+
+    static int getRefreshCount() {
+        return refreshCount;
+    }
+
+    // True if a session exists but its access token has already expired according to the front token, in which case
+    // sending a request with it would only result in the session expired status code
+    static boolean isAccessTokenExpired(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext) {
+        if (preRequestLocalSessionState.status != Utils.LocalSessionStateStatus.EXISTS) {
+            return false;
+        }
+
+        FrontToken.TokenInfo tokenInfo = FrontToken.getStoredTokenInfo(applicationContext);
+        return tokenInfo != null && tokenInfo.accessTokenExpiry < System.currentTimeMillis();
+    }
+
+    // The headers that both transports send to the refresh API, in the order they should be set
+    static Map<String, String> getRefreshRequestHeaders(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext) {
+        Map<String, String> headers = new LinkedHashMap<>();
+
+        if (preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS) {
+            String antiCSRFToken = AntiCSRF.getToken(applicationContext, preRequestLocalSessionState.lastAccessTokenUpdate);
+
+            if (antiCSRFToken != null) {
+                headers.put(Constants.CSRF_HEADER_KEY, antiCSRFToken);
+            }
+        }
+
+        headers.put("rid", SuperTokens.rid);
+        headers.put("fdi-version", Utils.join(Version.supported_fdi, ","));
+        headers.put("st-auth-mode", SuperTokens.config.tokenTransferMethod);
+
+        // NOTE: Checking for an existing auth header is not necessary for a refresh API call.
+        String authHeader = Utils.getAuthorizationHeaderIfExists(true, applicationContext);
+        if (authHeader != null) {
+            headers.put("Authorization", authHeader);
+        }
+
+        Map<String, String> customRefreshHeaders = SuperTokens.config.customHeaderMapper.getRequestHeaders(CustomHeaderProvider.RequestType.REFRESH);
+        if (customRefreshHeaders != null) {
+            headers.putAll(customRefreshHeaders);
+        }
+
+        return headers;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Cookie;
+import okhttp3.HttpUrl;
+
+/**
+ * Process wide cookie store used by {@link SuperTokensCookieJar}, persisted in the same {@link SessionStorage} as
+ * the session tokens.
+ *
+ * Cookies are kept in buckets keyed by their domain, so finding the cookies for a request only looks at the buckets
+ * of the request's host and its parent domains. Each bucket is stored as one storage entry, and an index entry lists
+ * the domains that have one.
+ *
+ * Changes to the cookies of hosts that SuperTokens intercepts are not written right away. OkHttp saves the cookies of
+ * a response before the interceptor reads its session headers, so they are written by {@link TokenCache#commit} in
+ * the same transaction as the tokens of that response. Changes that are still pending when the next response's
+ * cookies are saved are written then.
+ *
+ * The cookies are read from the storage the SDK currently uses, and read again if that changes (for example when
+ * init is called again with another sessionStorage). Nothing is cached while init has not been called.
+ */
+class SessionCookieStore {
+    private static final String INDEX_KEY = Constants.STORAGE_ITEM_PREFIX + "cookie-domains";
+    private static final String BUCKET_KEY_PREFIX = Constants.STORAGE_ITEM_PREFIX + "cookies-";
+    // Neither domains nor serialised cookies can contain a line break
+    private static final String SEPARATOR = "\n";
+
+    private static final Object lock = new Object();
+    @Nullable
+    private static Map<String, List<Cookie>> cookiesByDomain;
+    // The storage cookiesByDomain was read from
+    @Nullable
+    private static SessionStorage loadedFrom;
+    // Domains whose persistent cookies changed since they were last written to storage
+    private static final LinkedHashSet<String> pendingDomains = new LinkedHashSet<>();
+    private static boolean isIndexPending = false;
+
+    static List<Cookie> loadForRequest(Context context, HttpUrl url) {
+        List<Cookie> result = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (lock) {
+            Map<String, List<Cookie>> cookies = getCookies(context);
+            String domain = url.host();
+            // The host itself, then each parent domain: a.b.example.com, b.example.com, example.com, com
+            while (domain != null) {
+                List<Cookie> bucket = cookies.get(domain);
+                if (bucket != null) {
+                    boolean hadPersistentCookies = hasPersistentCookies(bucket);
+                    boolean isChanged = false;
+                    for (Iterator<Cookie> it = bucket.iterator(); it.hasNext(); ) {
+                        Cookie cookie = it.next();
+                        if (cookie.expiresAt() <= now) {
+                            it.remove();
+                            isChanged = true;
+                        } else if (cookie.matches(url)) {
+                            result.add(cookie);
+                        }
+                    }
+
+                    if (isChanged) {
+                        onBucketChanged(cookies, domain, bucket, hadPersistentCookies);
+                    }
+                }
+
+                int dot = domain.indexOf('.');
+                domain = dot < 0 ? null : domain.substring(dot + 1);
+            }
+        }
+
+        return result;
+    }
+
+    static void saveFromResponse(Context context, HttpUrl url, List<Cookie> newCookies) {
+        synchronized (lock) {
+            Map<String, List<Cookie>> cookies = getCookies(context);
+            long now = System.currentTimeMillis();
+
+            for (Cookie cookie : newCookies) {
+                List<Cookie> bucket = cookies.get(cookie.domain());
+                if (bucket == null) {
+                    bucket = new ArrayList<>();
+                    cookies.put(cookie.domain(), bucket);
+                }
+
+                boolean hadPersistentCookies = hasPersistentCookies(bucket);
+                boolean changesStorage = cookie.persistent();
+                for (Iterator<Cookie> it = bucket.iterator(); it.hasNext(); ) {
+                    Cookie existing = it.next();
+                    if (isSameCookie(existing, cookie)) {
+                        changesStorage = changesStorage || existing.persistent();
+                        it.remove();
+                    }
+                }
+
+                // An expiry in the past is how servers delete a cookie
+                if (cookie.expiresAt() > now) {
+                    bucket.add(cookie);
+                }
+
+                if (changesStorage) {
+                    onBucketChanged(cookies, cookie.domain(), bucket, hadPersistentCookies);
+                } else if (bucket.isEmpty()) {
+                    cookies.remove(cookie.domain());
+                }
+            }
+        }
+
+        // Cookies for the session's API are written together with the session tokens of the response
+        boolean isWrittenWithSession = SuperTokens.interceptionMatcher != null
+                && SuperTokens.interceptionMatcher.shouldDoInterception(url.host());
+        if (!isWrittenWithSession) {
+            writePendingChanges(context);
+        }
+    }
+
+    private static final TokenCache.PendingWrites pendingWrites = new TokenCache.PendingWrites() {
+        @Override
+        public boolean addTo(SessionStorage storage, SessionStorage.Editor editor) {
+            synchronized (lock) {
+                if (cookiesByDomain == null || !hasPendingChanges()) {
+                    return false;
+                }
+
+                if (storage != loadedFrom) {
+                    // The SDK switched to another storage, the changes belong to the one the cookies were read from
+                    writePendingChangesTo(loadedFrom);
+                    return false;
+                }
+
+                addPendingChanges(editor);
+                return true;
+            }
+        }
+    };
+
+    // Called by SuperTokensCookieJar, from then on pending changes are written together with the session tokens
+    static void register() {
+        TokenCache.setPendingWrites(pendingWrites);
+    }
+
+    private static void writePendingChanges(Context context) {
+        TokenCache.commitPendingWrites(context);
+    }
+
+    private static void writePendingChangesTo(SessionStorage storage) {
+        SessionStorage.Editor editor = storage.edit();
+        addPendingChanges(editor);
+        editor.apply();
+    }
+
+    private static void addPendingChanges(SessionStorage.Editor editor) {
+        for (String domain : pendingDomains) {
+            String serialised = serialise(cookiesByDomain.get(domain));
+            if (serialised == null) {
+                editor.remove(BUCKET_KEY_PREFIX + domain);
+            } else {
+                editor.putString(BUCKET_KEY_PREFIX + domain, serialised);
+            }
+        }
+
+        if (isIndexPending) {
+            StringBuilder index = new StringBuilder();
+            for (Map.Entry<String, List<Cookie>> entry : cookiesByDomain.entrySet()) {
+                if (hasPersistentCookies(entry.getValue())) {
+                    index.append(entry.getKey()).append(SEPARATOR);
+                }
+            }
+            editor.putString(INDEX_KEY, index.toString());
+        }
+
+        pendingDomains.clear();
+        isIndexPending = false;
+    }
+
+    private static boolean hasPendingChanges() {
+        return !pendingDomains.isEmpty() || isIndexPending;
+    }
+
+    // The index lists the domains with persistent cookies, it changes when a bucket gains its first or loses its last
+    private static void onBucketChanged(Map<String, List<Cookie>> cookies, String domain, List<Cookie> bucket,
+            boolean hadPersistentCookies) {
+        pendingDomains.add(domain);
+        if (hasPersistentCookies(bucket) != hadPersistentCookies) {
+            isIndexPending = true;
+        }
+
+        if (bucket.isEmpty()) {
+            cookies.remove(domain);
+        }
+    }
+
+    // Cookies replace each other if they have the same name, domain and path (RFC 6265, section 5.3)
+    private static boolean isSameCookie(Cookie a, Cookie b) {
+        return a.name().equals(b.name()) && a.domain().equals(b.domain()) && a.path().equals(b.path())
+                && a.hostOnly() == b.hostOnly();
+    }
+
+    private static boolean hasPersistentCookies(List<Cookie> bucket) {
+        for (Cookie cookie : bucket) {
+            if (cookie.persistent()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Only persistent cookies are stored, returns null if the bucket has none
+    @Nullable
+    private static String serialise(@Nullable List<Cookie> bucket) {
+        if (bucket == null) {
+            return null;
+        }
+
+        StringBuilder builder = null;
+        for (Cookie cookie : bucket) {
+            if (cookie.persistent()) {
+                if (builder == null) {
+                    builder = new StringBuilder();
+                }
+                builder.append(cookie.toString()).append(SEPARATOR);
+            }
+        }
+
+        return builder == null ? null : builder.toString();
+    }
+
+    private static Map<String, List<Cookie>> getCookies(Context context) {
+        SessionStorage storage = Utils.getSessionStorage(context);
+        if (cookiesByDomain == null || storage != loadedFrom) {
+            if (cookiesByDomain != null && hasPendingChanges()) {
+                writePendingChangesTo(loadedFrom);
+            }
+
+            // Before init every call gets a new default storage, so cookies read then are never reused
+            cookiesByDomain = readFromStorage(storage);
+            loadedFrom = storage;
+        }
+
+        return cookiesByDomain;
+    }
+
+    private static Map<String, List<Cookie>> readFromStorage(SessionStorage storage) {
+        Map<String, List<Cookie>> cookies = new HashMap<>();
+        String index = storage.getString(INDEX_KEY);
+        if (index == null) {
+            return cookies;
+        }
+
+        long now = System.currentTimeMillis();
+        for (String domain : index.split(SEPARATOR)) {
+            String serialised = domain.isEmpty() ? null : storage.getString(BUCKET_KEY_PREFIX + domain);
+            if (serialised == null) {
+                continue;
+            }
+
+            // Cookie.toString() only includes the domain attribute for domain cookies, so parsing it with a URL
+            // for the domain itself restores host-only cookies as host-only
+            HttpUrl url = HttpUrl.parse("https://" + (domain.indexOf(':') >= 0 ? "[" + domain + "]" : domain) + "/");
+            if (url == null) {
+                continue;
+            }
+
+            List<Cookie> bucket = new ArrayList<>();
+            for (String line : serialised.split(SEPARATOR)) {
+                Cookie cookie = line.isEmpty() ? null : Cookie.parse(url, line);
+                if (cookie != null && cookie.expiresAt() > now) {
+                    bucket.add(cookie);
+                }
+            }
+
+            if (!bucket.isEmpty()) {
+                cookies.put(domain, bucket);
+            }
+        }
+
+        return cookies;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A session event together with the state of the session when it was fired.
+ */
+public class SessionEvent {
+    private final EventHandler.EventType type;
+    @Nullable
+    private final FrontToken.TokenInfo tokenInfo;
+    private final long refreshDurationMillis;
+
+    SessionEvent(EventHandler.EventType type, @Nullable FrontToken.TokenInfo tokenInfo, long refreshDurationMillis) {
+        this.type = type;
+        this.tokenInfo = tokenInfo;
+        this.refreshDurationMillis = refreshDurationMillis;
+    }
+
+    public EventHandler.EventType getType() {
+        return type;
+    }
+
+    /**
+     * The decoded front token of the session when the event was fired, null if no session existed at that point
+     * (for example for SIGN_OUT and UNAUTHORISED).
+     */
+    @Nullable
+    public FrontToken.TokenInfo getTokenInfo() {
+        return tokenInfo;
+    }
+
+    /**
+     * How long the call to the refresh API took, for REFRESH_SESSION events. -1 for all other events.
+     */
+    public long getRefreshDurationMillis() {
+        return refreshDurationMillis;
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+/**
+ * Receives the session events of the SDK. Listeners are added with {@link SuperTokens#addSessionEventListener}
+ * and are called on the event executor (see {@code eventExecutor} in {@link SuperTokens.Builder}), after the
+ * {@link EventHandler}, in the order the events were fired.
+ */
+public interface SessionEventListener {
+    public void onSessionEvent(SessionEvent event);
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The result of an asynchronous SuperTokens operation.
+ *
+ * It is a regular {@link java.util.concurrent.Future}, and callbacks can be added to be notified when it completes
+ * instead of blocking a thread on {@link #get()}. Callbacks are called on the thread that completes the future, or
+ * right away on the calling thread if it has already completed, so they should not block.
+ */
+public class SessionFuture<T> extends FutureTask<T> {
+    public interface Callback<T> {
+        public void onSuccess(T result);
+
+        public void onError(Throwable error);
+    }
+
+    // Used to derive a future from the result of another one
+    interface Transformer<T, R> {
+        R apply(T value) throws Exception;
+    }
+
+    private final List<Callback<T>> callbacks = new ArrayList<>();
+
+    SessionFuture(Callable<T> callable) {
+        super(callable);
+    }
+
+    // A future that is completed with complete or fail instead of being run
+    SessionFuture() {
+        super(new Callable<T>() {
+            @Override
+            public T call() {
+                throw new IllegalStateException("This future cannot be run");
+            }
+        });
+    }
+
+    static <T> SessionFuture<T> completed(T value) {
+        SessionFuture<T> future = new SessionFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    void complete(T value) {
+        set(value);
+    }
+
+    void fail(Throwable error) {
+        setException(error);
+    }
+
+    public void addCallback(Callback<T> callback) {
+        synchronized (callbacks) {
+            if (!isDone()) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+
+        notifyCallback(callback);
+    }
+
+    // Returns a future that completes with the result of the transformer once this one completes successfully
+    <R> SessionFuture<R> then(final Transformer<T, R> transformer) {
+        final SessionFuture<R> result = new SessionFuture<>();
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                try {
+                    result.complete(transformer.apply(value));
+                } catch (Exception e) {
+                    result.fail(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                result.fail(error);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    protected void done() {
+        List<Callback<T>> callbacksToNotify;
+        synchronized (callbacks) {
+            callbacksToNotify = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+
+        for (Callback<T> callback : callbacksToNotify) {
+            notifyCallback(callback);
+        }
+    }
+
+    private void notifyCallback(Callback<T> callback) {
+        T result;
+        try {
+            result = get();
+        } catch (ExecutionException e) {
+            callback.onError(e.getCause());
+            return;
+        } catch (CancellationException e) {
+            callback.onError(e);
+            return;
+        } catch (InterruptedException e) {
+            // The future is done so get does not wait, this can not happen
+            Thread.currentThread().interrupt();
+            callback.onError(e);
+            return;
+        }
+
+        callback.onSuccess(result);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import androidx.annotation.Nullable;
+
+/**
+ * An immutable snapshot of the local session state, returned by {@link SuperTokens#getSessionState()} and passed to
+ * {@link SessionStateObserver}s.
+ *
+ * The state is based on the front token stored on the device only, so a session that exists locally may still need
+ * to be refreshed before it can be used.
+ */
+public class SessionState {
+    private final long generation;
+    @Nullable
+    private final FrontToken.TokenInfo tokenInfo;
+
+    SessionState(long generation, @Nullable FrontToken.TokenInfo tokenInfo) {
+        this.generation = generation;
+        this.tokenInfo = tokenInfo;
+    }
+
+    public boolean doesSessionExist() {
+        return tokenInfo != null;
+    }
+
+    /**
+     * Increases by one every time the session state changes, which can be used to tell if two snapshots are of the
+     * same state.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * The decoded front token of the session, null if no session exists.
+     */
+    @Nullable
+    public FrontToken.TokenInfo getTokenInfo() {
+        return tokenInfo;
+    }
+
+    boolean hasFrontToken(@Nullable FrontToken.TokenInfo tokenInfo) {
+        if (this.tokenInfo == null || tokenInfo == null) {
+            return this.tokenInfo == tokenInfo;
+        }
+
+        return this.tokenInfo.frontToken.equals(tokenInfo.frontToken);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the current {@link SessionState} and notifies the {@link SessionStateObserver}s when it changes.
+ *
+ * The state is updated from FrontToken whenever the stored front token changes, reading it is a volatile read.
+ * Observers are notified on the event executor after the locks are released, one notification at a time so that
+ * they always see the states in order.
+ */
+class SessionStateStore {
+    private static final SessionState INITIAL_STATE = new SessionState(0, null);
+
+    private static final Object lock = new Object();
+    private static volatile SessionState currentState = INITIAL_STATE;
+    static final CopyOnWriteArrayList<SessionStateObserver> observers = new CopyOnWriteArrayList<>();
+    private static boolean isNotifying = false;
+    private static long lastNotifiedGeneration = 0;
+
+    static SessionState get() {
+        return currentState;
+    }
+
+    static void onFrontTokenChanged(@Nullable FrontToken.TokenInfo tokenInfo) {
+        synchronized (lock) {
+            SessionState state = currentState;
+            if (state.hasFrontToken(tokenInfo)) {
+                return;
+            }
+
+            currentState = new SessionState(state.getGeneration() + 1, tokenInfo);
+
+            if (isNotifying || observers.isEmpty()) {
+                return;
+            }
+
+            isNotifying = true;
+        }
+
+        Utils.NormalisedInputType config = SuperTokens.config;
+        if (config == null) {
+            // init has not been called yet, observers will be notified of the next change instead
+            synchronized (lock) {
+                isNotifying = false;
+            }
+            return;
+        }
+
+        try {
+            EventDispatcher.getExecutor(config).execute(new Runnable() {
+                @Override
+                public void run() {
+                    notifyObservers();
+                }
+            });
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                isNotifying = false;
+            }
+            Logger.log("SuperTokens: could not notify the session state observers, the event executor rejected the task");
+        }
+    }
+
+    private static void notifyObservers() {
+        while (true) {
+            SessionState state;
+            synchronized (lock) {
+                state = currentState;
+                if (state.getGeneration() == lastNotifiedGeneration) {
+                    isNotifying = false;
+                    return;
+                }
+                lastNotifiedGeneration = state.getGeneration();
+            }
+
+            for (SessionStateObserver observer : observers) {
+                try {
+                    observer.onSessionStateChanged(state);
+                } catch (RuntimeException e) {
+                    // An error in one observer should not stop the others from being notified
+                    Logger.log("SuperTokens: a session state observer threw an error", e);
+                }
+            }
+        }
+    }
+
+    static void reset() {
+        synchronized (lock) {
+            currentState = INITIAL_STATE;
+            lastNotifiedGeneration = 0;
+            observers.clear();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+/**
+ * The status of the session according to the tokens stored on the device, see
+ * {@link SuperTokens#getLocalSessionStatus}.
+ */
+public enum SessionStatus {
+    // A session exists and its access token has not expired
+    EXISTS,
+    // A session exists but its access token has expired, it needs to be refreshed before it can be used
+    EXPIRED,
+    // No session exists
+    NONE
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Storage engine used by the SDK to persist the session tokens.
+ *
+ * By default the session is stored in {@code SharedPreferences} (see {@link SharedPreferencesSessionStorage}),
+ * a different implementation can be provided using {@link SuperTokens.Builder#sessionStorage(SessionStorage)}.
+ *
+ * Implementations must be thread safe. All the changes made to a single {@link Editor} must become visible
+ * together when {@link Editor#apply()} is called.
+ */
+public interface SessionStorage {
+    @Nullable
+    public String getString(String key);
+
+    public Editor edit();
+
+    public interface Editor {
+        public Editor putString(String key, String value);
+
+        public Editor remove(String key);
+
+        public void apply();
+    }
+}
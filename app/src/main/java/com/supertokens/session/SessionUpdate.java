@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects every change made to the stored session by a single response (or a single API call) and
+ * applies it with one storage transaction and one swap of the in memory {@link TokenCache} snapshot.
+ *
+ * This means a login or refresh response results in a single disk write instead of one per header,
+ * and other threads can never observe a session where, for example, the access token was updated
+ * but the front token was not.
+ */
+class SessionUpdate {
+    private static final String IRT_FRONTEND_STORAGE_NAME = "sIRTFrontend";
+
+    // For the tokens below null means "leave as is" and an empty string means "remove"
+    @Nullable
+    private String accessToken;
+    @Nullable
+    private String refreshToken;
+    @Nullable
+    private String frontToken;
+    @Nullable
+    private String antiCSRF;
+    private boolean removeAntiCSRF = false;
+    private boolean removeSession = false;
+    private boolean updateLastAccessTokenUpdate = false;
+    @Nullable
+    private String lastAccessTokenUpdate;
+    // Items set through the deprecated Utils.storeInStorage that are not part of the session snapshot
+    private final Map<String, String> storageItems = new HashMap<>();
+
+    SessionUpdate setToken(Utils.TokenType tokenType, String value) {
+        if (tokenType == Utils.TokenType.ACCESS) {
+            accessToken = value;
+        } else {
+            refreshToken = value;
+        }
+        return this;
+    }
+
+    // Mirrors FrontToken.setItem: "remove" clears the whole session, anything else is stored as the new front token
+    SessionUpdate setFrontTokenItem(String frontToken) {
+        updateLastAccessTokenUpdate = true;
+        if (frontToken.equalsIgnoreCase("remove")) {
+            return removeSession();
+        }
+
+        return setFrontToken(frontToken);
+    }
+
+    SessionUpdate setFrontToken(String frontToken) {
+        this.frontToken = frontToken;
+        return this;
+    }
+
+    SessionUpdate updateLastAccessTokenUpdate() {
+        updateLastAccessTokenUpdate = true;
+        return this;
+    }
+
+    // Items that are part of the session snapshot are routed to their setters so that TokenCache stays in sync
+    SessionUpdate setStorageItem(String name, String value) {
+        if (name.equals(Utils.getStorageName(Utils.TokenType.ACCESS))) {
+            return setToken(Utils.TokenType.ACCESS, value);
+        }
+
+        if (name.equals(Utils.getStorageName(Utils.TokenType.REFRESH))) {
+            return setToken(Utils.TokenType.REFRESH, value);
+        }
+
+        if (name.equals(Constants.LAST_ACCESS_TOKEN_UPDATE_PREFS_KEY)) {
+            lastAccessTokenUpdate = value;
+            return this;
+        }
+
+        storageItems.put(name, value);
+        return this;
+    }
+
+    SessionUpdate setAntiCSRF(String antiCSRF) {
+        this.antiCSRF = antiCSRF;
+        this.removeAntiCSRF = false;
+        return this;
+    }
+
+    SessionUpdate removeAntiCSRF() {
+        this.antiCSRF = null;
+        this.removeAntiCSRF = true;
+        return this;
+    }
+
+    // We are clearing all stored tokens here, because:
+    // 1. removing FrontToken signals that the session is being cleared
+    // 2. you can only have a single active session - this means that all tokens can be cleared from all auth-modes if one is being cleared
+    // 3. some proxies remove the empty headers used to clear the other tokens (i.e.: https://github.com/supertokens/supertokens-website/issues/218)
+    SessionUpdate removeSession() {
+        this.removeSession = true;
+        this.frontToken = null;
+        return this;
+    }
+
+    static SessionUpdate fromHeaders(
+            @Nullable String refreshToken,
+            @Nullable String accessToken,
+            @Nullable String frontToken,
+            @Nullable String antiCSRF) {
+        SessionUpdate update = new SessionUpdate();
+
+        if (refreshToken != null) {
+            update.setToken(Utils.TokenType.REFRESH, refreshToken);
+        }
+
+        if (accessToken != null) {
+            update.setToken(Utils.TokenType.ACCESS, accessToken);
+        }
+
+        if (frontToken != null) {
+            update.setFrontTokenItem(frontToken);
+        }
+
+        if (antiCSRF != null) {
+            update.setAntiCSRF(antiCSRF);
+        }
+
+        return update;
+    }
+
+    boolean isEmpty() {
+        return accessToken == null && refreshToken == null && frontToken == null && antiCSRF == null &&
+                !removeAntiCSRF && !removeSession && !updateLastAccessTokenUpdate && lastAccessTokenUpdate == null &&
+                storageItems.isEmpty();
+    }
+
+    void commit(Context context) {
+        if (isEmpty()) {
+            // Cookies saved for a response without session headers are still written once per response
+            TokenCache.commitPendingWrites(context);
+            return;
+        }
+
+        synchronized (FrontToken.tokenLock) {
+            TokenCache.Tokens previous = TokenCache.commit(context, this);
+
+            if (frontToken != null || removeSession) {
+                FrontToken.onFrontTokenChanged(previous.frontToken, frontToken);
+            }
+
+            FrontToken.tokenLock.notifyAll();
+        }
+    }
+
+    /**
+     * Computes the snapshot that results from applying this update to {@code current} and records the
+     * matching storage writes in {@code editor}. Every storage key is written at most once.
+     */
+    TokenCache.Tokens applyTo(TokenCache.Tokens current, SessionStorage.Editor editor) {
+        String nextAccessToken = current.accessToken;
+        String nextRefreshToken = current.refreshToken;
+        String nextLastAccessTokenUpdate = current.lastAccessTokenUpdate;
+        String nextFrontToken = current.frontToken;
+        String nextAntiCSRF = current.antiCSRF;
+
+        boolean accessTokenChanged = false;
+        boolean refreshTokenChanged = false;
+        boolean frontTokenChanged = false;
+        boolean antiCSRFChanged = false;
+
+        if (refreshToken != null) {
+            nextRefreshToken = emptyToNull(refreshToken);
+            refreshTokenChanged = true;
+        }
+
+        if (accessToken != null) {
+            nextAccessToken = emptyToNull(accessToken);
+            accessTokenChanged = true;
+        }
+
+        if (updateLastAccessTokenUpdate) {
+            // We update the refresh attempt info here as well, since this means that we've updated the session in some way
+            // Check FrontToken.setItem for more details
+            nextLastAccessTokenUpdate = "" + System.currentTimeMillis();
+            putOrRemove(editor, Constants.STORAGE_ITEM_PREFIX + Constants.LAST_ACCESS_TOKEN_UPDATE_PREFS_KEY, nextLastAccessTokenUpdate);
+            editor.remove(Constants.STORAGE_ITEM_PREFIX + IRT_FRONTEND_STORAGE_NAME);
+        } else if (lastAccessTokenUpdate != null) {
+            nextLastAccessTokenUpdate = emptyToNull(lastAccessTokenUpdate);
+            putOrRemove(editor, Constants.STORAGE_ITEM_PREFIX + Constants.LAST_ACCESS_TOKEN_UPDATE_PREFS_KEY, nextLastAccessTokenUpdate);
+        }
+
+        for (Map.Entry<String, String> item : storageItems.entrySet()) {
+            putOrRemove(editor, Constants.STORAGE_ITEM_PREFIX + item.getKey(), emptyToNull(item.getValue()));
+        }
+
+        if (removeSession) {
+            nextAntiCSRF = null;
+            antiCSRFChanged = true;
+            nextFrontToken = null;
+            frontTokenChanged = true;
+            nextAccessToken = null;
+            accessTokenChanged = true;
+            nextRefreshToken = null;
+            refreshTokenChanged = true;
+        } else if (frontToken != null) {
+            nextFrontToken = frontToken;
+            frontTokenChanged = true;
+        }
+
+        if (antiCSRF != null) {
+            // The anti-csrf token is associated with the current access token update, if there is no
+            // session after applying the rest of the update there is nothing to associate it with
+            if (nextFrontToken != null && nextLastAccessTokenUpdate != null) {
+                nextAntiCSRF = antiCSRF;
+                antiCSRFChanged = true;
+            }
+        } else if (removeAntiCSRF) {
+            nextAntiCSRF = null;
+            antiCSRFChanged = true;
+        }
+
+        if (accessTokenChanged) {
+            putOrRemove(editor, Constants.STORAGE_ITEM_PREFIX + Utils.getStorageName(Utils.TokenType.ACCESS), nextAccessToken);
+        }
+
+        if (refreshTokenChanged) {
+            putOrRemove(editor, Constants.STORAGE_ITEM_PREFIX + Utils.getStorageName(Utils.TokenType.REFRESH), nextRefreshToken);
+        }
+
+        if (frontTokenChanged) {
+            putOrRemove(editor, Constants.FRONT_TOKEN_PREFS_KEY, nextFrontToken);
+        }
+
+        if (antiCSRFChanged) {
+            putOrRemove(editor, Constants.CSRF_TOKEN_PREFS_KEY, nextAntiCSRF);
+        }
+
+        return new TokenCache.Tokens(nextAccessToken, nextRefreshToken, nextLastAccessTokenUpdate, nextFrontToken, nextAntiCSRF);
+    }
+
+    private static void putOrRemove(SessionStorage.Editor editor, String key, @Nullable String value) {
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+
+    @Nullable
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The default {@link SessionStorage}, it stores the session in the application's {@code SharedPreferences}.
+ */
+public class SharedPreferencesSessionStorage implements SessionStorage {
+    private final Context context;
+
+    public SharedPreferencesSessionStorage(Context context) {
+        this.context = context;
+    }
+
+    // The SharedPreferences instance is not kept around because Context.getSharedPreferences
+    // already caches it and some environments replace it between calls
+    private SharedPreferences getSharedPreferences() {
+        return context.getSharedPreferences(Constants.SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key) {
+        return getSharedPreferences().getString(key, null);
+    }
+
+    @Override
+    public SessionStorage.Editor edit() {
+        return new Editor(getSharedPreferences().edit());
+    }
+
+    private static class Editor implements SessionStorage.Editor {
+        private final SharedPreferences.Editor editor;
+
+        Editor(SharedPreferences.Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public SessionStorage.Editor putString(String key, String value) {
+            editor.putString(key, value);
+            return this;
+        }
+
+        @Override
+        public SessionStorage.Editor remove(String key) {
+            editor.remove(key);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            editor.apply();
+        }
+    }
+}
@@ -35,6 +35,9 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 public class SuperTokens {
     static String refreshTokenUrl;
@@ -43,6 +46,8 @@ public class SuperTokens {
     static String rid;
     static Utils.NormalisedInputType config;
     static WeakReference<Context> contextWeakReference;
+    static InterceptionMatcher interceptionMatcher;
+    static final CopyOnWriteArrayList<SessionEventListener> sessionEventListeners = new CopyOnWriteArrayList<>();
 
     @SuppressWarnings("unused")
     private static void init(
@@ -54,7 +59,14 @@ public class SuperTokens {
             @Nullable String sessionTokenBackendDomain,
             @Nullable String tokenTransferMethod,
             @Nullable CustomHeaderProvider customHeaderProvider,
-            @Nullable EventHandler eventHandler
+            @Nullable EventHandler eventHandler,
+            @Nullable SessionStorage sessionStorage,
+            @Nullable Long proactiveRefreshMarginMillis,
+            @Nullable Boolean refreshBeforeRequestIfExpired,
+            @Nullable Long maxUnauthorisedResponseBodySize,
+            @Nullable Executor eventExecutor,
+            @Nullable Executor asyncExecutor,
+            @Nullable Boolean loggingEnabled
     ) throws MalformedURLException {
         if ( SuperTokens.isInitCalled ) {
             return;
@@ -68,23 +80,53 @@ public class SuperTokens {
                 sessionTokenBackendDomain,
                 tokenTransferMethod,
                 customHeaderProvider,
-                eventHandler
+                eventHandler,
+                sessionStorage,
+                proactiveRefreshMarginMillis,
+                refreshBeforeRequestIfExpired,
+                maxUnauthorisedResponseBodySize,
+                eventExecutor,
+                asyncExecutor,
+                loggingEnabled
         );
+        Logger.setEnabled(SuperTokens.config.loggingEnabled);
+        if (SuperTokens.config.sessionStorage == null) {
+            SuperTokens.config.sessionStorage = new SharedPreferencesSessionStorage(applicationContext);
+        }
         contextWeakReference = new WeakReference<Context>(applicationContext);
         SuperTokens.refreshTokenUrl = SuperTokens.config.apiDomain + SuperTokens.config.apiBasePath + "/session/refresh";
         SuperTokens.signOutUrl = SuperTokens.config.apiDomain + SuperTokens.config.apiBasePath + "/signout";
         SuperTokens.rid = "session";
+        SuperTokens.interceptionMatcher = InterceptionMatcher.create(SuperTokens.config.apiDomain, SuperTokens.config.sessionTokenBackendDomain);
+        TokenCache.load(applicationContext);
+        FrontToken.TokenInfo storedTokenInfo = null;
+        try {
+            storedTokenInfo = FrontToken.getStoredTokenInfo(applicationContext);
+        } catch (IllegalStateException e) {
+            Logger.log("SuperTokens: the stored front token could not be decoded");
+        }
+        SessionStateStore.onFrontTokenChanged(storedTokenInfo);
         SuperTokens.isInitCalled = true;
+        if (SuperTokens.config.proactiveRefreshMarginMillis != null) {
+            ProactiveRefreshScheduler.onSessionChanged(storedTokenInfo);
+        }
     }
 
     @TestOnly
     public static void resetForTests() {
+        ProactiveRefreshScheduler.reset();
         SuperTokens.isInitCalled = false;
         SuperTokens.config = null;
         SuperTokens.refreshTokenUrl = null;
         SuperTokens.signOutUrl = null;
         SuperTokens.rid = null;
         SuperTokens.contextWeakReference = null;
+        SuperTokens.interceptionMatcher = null;
+        SuperTokens.sessionEventListeners.clear();
+        SessionStateStore.reset();
+        EventDispatcher.reset();
+        TokenCache.clear();
+        Logger.setEnabled(true);
     }
 
     @TestOnly
@@ -109,35 +151,99 @@ public class SuperTokens {
         }
     }
 
-    @SuppressWarnings("unused")
-    public static boolean doesSessionExist(Context context) {
-        try {
-            JSONObject frontToken = FrontToken.getToken(context);
+    /**
+     * Adds a listener that is called for every session event, in addition to the EventHandler passed to the Builder.
+     * Listeners can be added and removed at any time, including before init is called.
+     */
+    public static void addSessionEventListener(SessionEventListener listener) {
+        sessionEventListeners.addIfAbsent(listener);
+    }
 
-            if (frontToken == null) {
-                return false;
-            }
+    public static void removeSessionEventListener(SessionEventListener listener) {
+        sessionEventListeners.remove(listener);
+    }
+
+    /**
+     * Returns the current local session state. Unlike doesSessionExist this never blocks or makes a network call,
+     * but it does not check if the access token has expired.
+     */
+    public static SessionState getSessionState() {
+        return SessionStateStore.get();
+    }
 
-            long currentTimeInMillis = System.currentTimeMillis();
+    /**
+     * Adds an observer that is called every time the local session state changes, for example when a session is
+     * created, refreshed or removed.
+     */
+    public static void addSessionStateObserver(SessionStateObserver observer) {
+        SessionStateStore.observers.addIfAbsent(observer);
+    }
 
-            long accessTokenExpiry = frontToken.getLong("ate");
+    public static void removeSessionStateObserver(SessionStateObserver observer) {
+        SessionStateStore.observers.remove(observer);
+    }
 
-            if (accessTokenExpiry < System.currentTimeMillis()) {
-                Utils.LocalSessionState localSessionState = Utils.getLocalSessionState(context);
-                Utils.Unauthorised response = SuperTokensHttpURLConnection.onUnauthorisedResponse(localSessionState, context);
-                return response.status == Utils.Unauthorised.UnauthorisedStatus.RETRY;
-            }
-        } catch (JSONException e) {
+    @SuppressWarnings("unused")
+    public static boolean doesSessionExist(Context context) {
+        FrontToken.TokenInfo tokenInfo = FrontToken.getTokenInfo(context);
+
+        if (tokenInfo == null) {
             return false;
         }
 
+        if (tokenInfo.accessTokenExpiry < System.currentTimeMillis()) {
+            Utils.LocalSessionState localSessionState = Utils.getLocalSessionState(context);
+            Utils.Unauthorised response = SuperTokensHttpURLConnection.onUnauthorisedResponse(localSessionState, context);
+            return response.status == Utils.Unauthorised.UnauthorisedStatus.RETRY;
+        }
+
         return true;
     }
 
+    /**
+     * Returns the status of the session based only on the tokens stored on the device. This never blocks or makes a
+     * network call, so it is safe to call from the main thread.
+     */
+    public static SessionStatus getLocalSessionStatus(Context context) {
+        if (Utils.getLocalSessionState(context).status == Utils.LocalSessionStateStatus.NOT_EXISTS) {
+            return SessionStatus.NONE;
+        }
+
+        FrontToken.TokenInfo tokenInfo = FrontToken.getStoredTokenInfo(context);
+        if (tokenInfo == null) {
+            return SessionStatus.NONE;
+        }
+
+        if (tokenInfo.accessTokenExpiry < System.currentTimeMillis()) {
+            return SessionStatus.EXPIRED;
+        }
+
+        return SessionStatus.EXISTS;
+    }
+
+    /**
+     * The asynchronous version of doesSessionExist. The returned future is already completed unless the access token
+     * has expired, in which case it completes once the session has been refreshed. If a refresh is already in flight
+     * it waits for that one instead of starting another.
+     */
+    public static SessionFuture<Boolean> doesSessionExistAsync(Context context) {
+        SessionStatus status = getLocalSessionStatus(context);
+        if (status != SessionStatus.EXPIRED) {
+            return SessionFuture.completed(status == SessionStatus.EXISTS);
+        }
+
+        return AsyncOperations.refresh(context, Utils.getLocalSessionState(context)).then(new SessionFuture.Transformer<Utils.Unauthorised, Boolean>() {
+            @Override
+            public Boolean apply(Utils.Unauthorised response) {
+                return response.status == Utils.Unauthorised.UnauthorisedStatus.RETRY;
+            }
+        });
+    }
+
     @SuppressWarnings("unused")
     public static void signOut(Context context) throws IOException, IllegalAccessException, SuperTokensGeneralError {
         if (!doesSessionExist(context)) {
-            SuperTokens.config.eventHandler.handleEvent(EventHandler.EventType.SIGN_OUT);
+            EventDispatcher.dispatch(EventHandler.EventType.SIGN_OUT);
             return;
         }
 
@@ -212,29 +318,88 @@ public class SuperTokens {
         return unauthorisedResponse.status == Utils.Unauthorised.UnauthorisedStatus.RETRY;
     }
 
+    /**
+     * The asynchronous version of attemptRefreshingSession. Concurrent callers share the same refresh, only one call
+     * is made to the refresh API.
+     */
+    public static SessionFuture<Boolean> attemptRefreshingSessionAsync(Context context) {
+        if (!SuperTokens.isInitCalled) {
+            SessionFuture<Boolean> future = new SessionFuture<>();
+            future.fail(new IllegalAccessException("SuperTokens.init function not called"));
+            return future;
+        }
+
+        return AsyncOperations.refresh(context, Utils.getLocalSessionState(context)).then(new SessionFuture.Transformer<Utils.Unauthorised, Boolean>() {
+            @Override
+            public Boolean apply(Utils.Unauthorised response) throws IOException {
+                if (response.status == Utils.Unauthorised.UnauthorisedStatus.API_ERROR) {
+                    throw response.error;
+                }
+
+                return response.status == Utils.Unauthorised.UnauthorisedStatus.RETRY;
+            }
+        });
+    }
+
+    /**
+     * The asynchronous version of signOut, the future fails with the exceptions signOut throws.
+     */
+    public static SessionFuture<Void> signOutAsync(final Context context) {
+        return AsyncOperations.run(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                signOut(context);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The asynchronous version of getAccessTokenPayloadSecurely. The returned future is already completed unless the
+     * access token has expired, in which case it completes once the session has been refreshed.
+     */
+    public static SessionFuture<JSONObject> getAccessTokenPayloadSecurelyAsync(final Context context) {
+        FrontToken.TokenInfo tokenInfo = FrontToken.getStoredTokenInfo(context);
+        if (tokenInfo == null) {
+            SessionFuture<JSONObject> future = new SessionFuture<>();
+            future.fail(new IllegalStateException("No session exists"));
+            return future;
+        }
+
+        if (tokenInfo.accessTokenExpiry >= System.currentTimeMillis()) {
+            return SessionFuture.completed(tokenInfo.getPayload());
+        }
+
+        return attemptRefreshingSessionAsync(context).then(new SessionFuture.Transformer<Boolean, JSONObject>() {
+            @Override
+            public JSONObject apply(Boolean retry) throws IOException {
+                FrontToken.TokenInfo refreshedTokenInfo = FrontToken.getStoredTokenInfo(context);
+                if (!retry || refreshedTokenInfo == null) {
+                    throw new IOException("Could not refresh session");
+                }
+
+                return refreshedTokenInfo.getPayload();
+            }
+        });
+    }
+
     public static String getUserId(Context context) {
-        JSONObject tokenInfo = FrontToken.getTokenInfo(context);
+        FrontToken.TokenInfo tokenInfo = FrontToken.getTokenInfo(context);
         if (tokenInfo == null) {
             throw new IllegalStateException("No session exists");
         }
 
-        try {
-            return tokenInfo.getString("uid");
-        } catch (JSONException e) {
-            throw new IllegalStateException(e);
-        }
+        return tokenInfo.userId;
     }
 
     public static JSONObject getAccessTokenPayloadSecurely(Context context) throws IOException {
-        JSONObject tokenInfo = FrontToken.getTokenInfo(context);
+        FrontToken.TokenInfo tokenInfo = FrontToken.getTokenInfo(context);
         if (tokenInfo == null) {
             throw new IllegalStateException("No session exists");
         }
 
         try {
-            long accessTokenExpiry = tokenInfo.getLong("ate");
-
-            if (accessTokenExpiry < System.currentTimeMillis()) {
+            if (tokenInfo.accessTokenExpiry < System.currentTimeMillis()) {
                 boolean retry = attemptRefreshingSession(context);
                 if (retry) {
                     return getAccessTokenPayloadSecurely(context);
@@ -243,8 +408,8 @@ public class SuperTokens {
                 }
             }
 
-            return tokenInfo.getJSONObject("up");
-        } catch (JSONException | IllegalAccessException e) {
+            return tokenInfo.getPayload();
+        } catch (IllegalAccessException e) {
             throw new IllegalStateException(e);
         }
     }
@@ -267,6 +432,13 @@ public class SuperTokens {
         CustomHeaderProvider customHeaderProvider;
         EventHandler eventHandler;
         String tokenTransferMethod;
+        SessionStorage sessionStorage;
+        Long proactiveRefreshMarginMillis;
+        Boolean refreshBeforeRequestIfExpired;
+        Long maxUnauthorisedResponseBodySize;
+        Executor eventExecutor;
+        Executor asyncExecutor;
+        Boolean loggingEnabled;
 
         public Builder(Context applicationContext, String apiDomain) {
             this.apiDomain = apiDomain;
@@ -308,8 +480,73 @@ public class SuperTokens {
             return this;
         }
 
+        public Builder sessionStorage(SessionStorage sessionStorage) {
+            this.sessionStorage = sessionStorage;
+            return this;
+        }
+
+        /**
+         * Refreshes the session in the background this many milliseconds before the access token expires, instead of
+         * waiting for a request to fail with the session expired status code. Disabled if not set.
+         *
+         * Apps that use OkHttp should create their {@link SuperTokensInterceptor} with a refresh client (see
+         * {@link SuperTokensInterceptor#buildRefreshClient}), or use {@link SuperTokensAuthenticator} or
+         * {@link SuperTokensCallFactory}, so that the background refresh is made with their client. Otherwise it is
+         * made with HttpURLConnection.
+         */
+        public Builder proactiveRefreshMarginMillis(Long proactiveRefreshMarginMillis) {
+            this.proactiveRefreshMarginMillis = proactiveRefreshMarginMillis;
+            return this;
+        }
+
+        /**
+         * If true, a request made after the access token has expired refreshes the session before it is sent, instead
+         * of being sent with the expired token and retried after it fails. Defaults to false.
+         */
+        public Builder refreshBeforeRequestIfExpired(Boolean refreshBeforeRequestIfExpired) {
+            this.refreshBeforeRequestIfExpired = refreshBeforeRequestIfExpired;
+            return this;
+        }
+
+        /**
+         * The maximum number of bytes of a session expired response body that SuperTokensInterceptor keeps in memory
+         * while it refreshes the session. If the response is returned, larger bodies are truncated and have no
+         * Content-Length header. Not limited by default.
+         */
+        public Builder maxUnauthorisedResponseBodySize(Long maxUnauthorisedResponseBodySize) {
+            this.maxUnauthorisedResponseBodySize = maxUnauthorisedResponseBodySize;
+            return this;
+        }
+
+        /**
+         * The executor that events are delivered to the eventHandler on. Events are delivered one at a time in the
+         * order they were fired. Defaults to a single background thread.
+         */
+        public Builder eventExecutor(Executor eventExecutor) {
+            this.eventExecutor = eventExecutor;
+            return this;
+        }
+
+        /**
+         * The executor that the asynchronous APIs (doesSessionExistAsync, attemptRefreshingSessionAsync, signOutAsync
+         * and getAccessTokenPayloadSecurelyAsync) run their blocking work on. Defaults to a pool of background threads.
+         */
+        public Builder asyncExecutor(Executor asyncExecutor) {
+            this.asyncExecutor = asyncExecutor;
+            return this;
+        }
+
+        /**
+         * If false, the SDK does not print its warnings and errors (such as an event handler throwing or the session
+         * refresh limit being reached) to stderr. Defaults to true.
+         */
+        public Builder loggingEnabled(Boolean loggingEnabled) {
+            this.loggingEnabled = loggingEnabled;
+            return this;
+        }
+
         public void build() throws MalformedURLException {
-            SuperTokens.init(applicationContext, apiDomain, apiBasePath, sessionExpiredStatusCode, maxRetryAttemptsForSessionRefresh, sessionTokenBackendDomain, tokenTransferMethod, customHeaderProvider, eventHandler);
+            SuperTokens.init(applicationContext, apiDomain, apiBasePath, sessionExpiredStatusCode, maxRetryAttemptsForSessionRefresh, sessionTokenBackendDomain, tokenTransferMethod, customHeaderProvider, eventHandler, sessionStorage, proactiveRefreshMarginMillis, refreshBeforeRequestIfExpired, maxUnauthorisedResponseBodySize, eventExecutor, asyncExecutor, loggingEnabled);
         }
     }
 }
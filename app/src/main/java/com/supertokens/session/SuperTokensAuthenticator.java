@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+import okhttp3.Authenticator;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+/**
+ * Refreshes the session when a request made with {@link SuperTokensHeaderInterceptor} fails with a 401, and returns
+ * the request signed with the new tokens so that OkHttp retries it. Compared to {@link SuperTokensInterceptor} the
+ * retry is done by OkHttp itself, and the 401 response does not need to be copied while the session is refreshed.
+ *
+ * OkHttp only calls authenticators for 401 responses, so this can only be used if {@code sessionExpiredStatusCode}
+ * is 401 (the default). If the refresh fails, or the request has already been retried
+ * {@code maxRetryAttemptsForSessionRefresh} times, the 401 response is returned to the caller.
+ */
+@SuppressWarnings("unused")
+public class SuperTokensAuthenticator implements Authenticator {
+    private final Call.Factory refreshCallFactory;
+
+    /**
+     * @param refreshCallFactory used to call the refresh API, usually a client built with
+     *                           {@link SuperTokensInterceptor#buildRefreshClient}. It must not use this authenticator.
+     */
+    public SuperTokensAuthenticator(Call.Factory refreshCallFactory) {
+        this.refreshCallFactory = refreshCallFactory;
+        ProactiveRefreshScheduler.setRefreshTransport(SuperTokensInterceptor.getRefreshTransport(refreshCallFactory));
+    }
+
+    @Nullable
+    @Override
+    public Request authenticate(@Nullable Route route, Response response) throws IOException {
+        if (!SuperTokens.isInitCalled) {
+            return null;
+        }
+
+        Context applicationContext = SuperTokens.contextWeakReference.get();
+        SuperTokensHeaderInterceptor.SignedRequest signed = response.request().tag(SuperTokensHeaderInterceptor.SignedRequest.class);
+        if (applicationContext == null || signed == null || response.code() != SuperTokens.config.sessionExpiredStatusCode) {
+            // The request was not signed by SuperTokensHeaderInterceptor, so it is not for the session's API
+            return null;
+        }
+
+        SuperTokensHeaderInterceptor.saveTokenFromResponse(response, applicationContext, signed.preRequestLocalSessionState);
+
+        if (getSessionRefreshAttempts(response) >= SuperTokens.config.maxRetryAttemptsForSessionRefresh) {
+            Logger.log("Received a 401 response from " + response.request().url() + ". Attempted to refresh the session and retry the request with the updated session tokens " + SuperTokens.config.maxRetryAttemptsForSessionRefresh + " times, but each attempt resulted in a 401 error. The maximum session refresh limit has been reached. Please investigate your API. To increase the session refresh attempts, update maxRetryAttemptsForSessionRefresh in the config.");
+            return null;
+        }
+
+        Utils.Unauthorised unauthorisedResponse = RefreshCoordinator.onUnauthorisedResponse(
+                signed.preRequestLocalSessionState,
+                applicationContext,
+                SuperTokensInterceptor.getRefreshTransport(refreshCallFactory)
+        );
+
+        if (unauthorisedResponse.status != Utils.Unauthorised.UnauthorisedStatus.RETRY) {
+            if (unauthorisedResponse.error != null) {
+                throw unauthorisedResponse.error;
+            }
+
+            return null;
+        }
+
+        // The anti-csrf token of the old session is not replaced if the new session does not have one
+        Request request = response.request().newBuilder().removeHeader(Constants.CSRF_HEADER_KEY).build();
+
+        RefreshCoordinator.refreshAPILock.readLock().lock();
+        try {
+            return SuperTokensHeaderInterceptor.sign(request, applicationContext, signed.isAuthHeaderFromSession);
+        } finally {
+            RefreshCoordinator.refreshAPILock.readLock().unlock();
+        }
+    }
+
+    // The number of times the request has already been retried after a refresh
+    private static int getSessionRefreshAttempts(Response response) {
+        int attempts = 0;
+        Response priorResponse = response.priorResponse();
+        while (priorResponse != null) {
+            if (priorResponse.code() == SuperTokens.config.sessionExpiredStatusCode) {
+                attempts++;
+            }
+            priorResponse = priorResponse.priorResponse();
+        }
+
+        return attempts;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Timeout;
+
+/**
+ * A {@link Call.Factory} for apps that use {@link Call#enqueue}, to be used instead of the OkHttpClient (which must
+ * have a {@link SuperTokensInterceptor}).
+ *
+ * When an enqueued call fails with the session expired status code, the interceptor does not refresh the session on
+ * the dispatcher thread. Instead the call waits for the shared asynchronous refresh without holding any thread and is
+ * enqueued again once the session has been refreshed. Calls made with {@link Call#execute()} behave exactly like calls
+ * made with the OkHttpClient.
+ *
+ * If a refresh is needed, the Callback of the call is invoked on the asyncExecutor (see {@link SuperTokens.Builder})
+ * rather than on an OkHttp dispatcher thread.
+ */
+public class SuperTokensCallFactory implements Call.Factory {
+    private final OkHttpClient client;
+
+    public SuperTokensCallFactory(OkHttpClient client) {
+        this.client = client;
+        // A refresh client given to the interceptor or the authenticator is preferred, since this one runs the app's
+        // interceptors
+        ProactiveRefreshScheduler.setDefaultRefreshTransport(SuperTokensInterceptor.getRefreshTransport(client));
+    }
+
+    @Override
+    public Call newCall(Request request) {
+        return new SuperTokensCall(client, request);
+    }
+
+    // Set as a tag on the requests of enqueued calls, tells the interceptor to return the session expired response
+    // instead of refreshing, along with the session state the request was made with
+    static class DeferredRefresh {
+        volatile Utils.LocalSessionState preRequestLocalSessionState;
+    }
+
+    private static class SuperTokensCall implements Call {
+        private final OkHttpClient client;
+        private final Request originalRequest;
+        private final AtomicBoolean isExecuted = new AtomicBoolean(false);
+        private volatile boolean isCanceled = false;
+        private volatile Call currentCall;
+        // Only used from the callbacks of this call, which never run at the same time
+        private int sessionRefreshAttempts = 0;
+
+        SuperTokensCall(OkHttpClient client, Request originalRequest) {
+            this.client = client;
+            this.originalRequest = originalRequest;
+            this.currentCall = client.newCall(originalRequest);
+        }
+
+        @Override
+        public Request request() {
+            return originalRequest;
+        }
+
+        @Override
+        public Response execute() throws IOException {
+            markExecuted();
+            return currentCall.execute();
+        }
+
+        @Override
+        public void enqueue(final Callback responseCallback) {
+            markExecuted();
+
+            Context applicationContext = SuperTokens.contextWeakReference == null ? null : SuperTokens.contextWeakReference.get();
+            if (!SuperTokens.isInitCalled || applicationContext == null) {
+                // Let the interceptor report the error
+                currentCall.enqueue(wrapCallback(responseCallback));
+                return;
+            }
+
+            if (SuperTokens.config.refreshBeforeRequestIfExpired && SuperTokens.config.maxRetryAttemptsForSessionRefresh > 0
+                    && SuperTokens.getLocalSessionStatus(applicationContext) == SessionStatus.EXPIRED) {
+                // Same as SuperTokensInterceptor, the refresh counts as an attempt and the call is only made if it succeeded
+                sessionRefreshAttempts++;
+                Utils.LocalSessionState localSessionState = Utils.getLocalSessionState(applicationContext);
+                AsyncOperations.refresh(applicationContext, localSessionState, SuperTokensInterceptor.getRefreshTransport(client)).addCallback(new SessionFuture.Callback<Utils.Unauthorised>() {
+                    @Override
+                    public void onSuccess(Utils.Unauthorised result) {
+                        if (result.status == Utils.Unauthorised.UnauthorisedStatus.RETRY) {
+                            send(responseCallback);
+                        } else if (result.error != null) {
+                            responseCallback.onFailure(SuperTokensCall.this, result.error);
+                        } else {
+                            deliverResponse(responseCallback, SuperTokensInterceptor.buildSessionExpiredResponse(originalRequest));
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        responseCallback.onFailure(SuperTokensCall.this, error instanceof IOException ? (IOException) error : new IOException(error));
+                    }
+                });
+                return;
+            }
+
+            send(responseCallback);
+        }
+
+        private void send(final Callback responseCallback) {
+            final DeferredRefresh deferredRefresh = new DeferredRefresh();
+            Call call = client.newCall(originalRequest.newBuilder().tag(DeferredRefresh.class, deferredRefresh).build());
+            currentCall = call;
+            if (isCanceled) {
+                call.cancel();
+            }
+
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    responseCallback.onFailure(SuperTokensCall.this, e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    if (deferredRefresh.preRequestLocalSessionState == null) {
+                        responseCallback.onResponse(SuperTokensCall.this, response);
+                        return;
+                    }
+
+                    onUnauthorisedResponse(deferredRefresh.preRequestLocalSessionState, response, responseCallback);
+                }
+            });
+        }
+
+        private void onUnauthorisedResponse(Utils.LocalSessionState preRequestLocalSessionState, Response response, final Callback responseCallback) {
+            Context applicationContext = SuperTokens.contextWeakReference.get();
+            if (applicationContext == null) {
+                response.close();
+                responseCallback.onFailure(this, new IOException("Context is null"));
+                return;
+            }
+
+            // Same limit as SuperTokensInterceptor, see maxRetryAttemptsForSessionRefresh
+            if (sessionRefreshAttempts >= SuperTokens.config.maxRetryAttemptsForSessionRefresh) {
+                String errorMsg = "Received a 401 response from " + originalRequest.url() + ". Attempted to refresh the session and retry the request with the updated session tokens " + SuperTokens.config.maxRetryAttemptsForSessionRefresh + " times, but each attempt resulted in a 401 error. The maximum session refresh limit has been reached. Please investigate your API. To increase the session refresh attempts, update maxRetryAttemptsForSessionRefresh in the config.";
+                Logger.log(errorMsg);
+                response.close();
+                responseCallback.onFailure(this, new IOException(errorMsg));
+                return;
+            }
+
+            sessionRefreshAttempts++;
+
+            Utils.LocalSessionState localSessionState = Utils.getLocalSessionState(applicationContext);
+            if (localSessionState.status == Utils.LocalSessionStateStatus.EXISTS && hasSessionChanged(preRequestLocalSessionState, localSessionState)) {
+                // The session was refreshed while the request was in flight, retrying is enough
+                response.close();
+                send(responseCallback);
+                return;
+            }
+
+            // The response is only returned if the session could not be refreshed, we do not want to keep the
+            // connection busy until then
+            final Response bufferedResponse;
+            try {
+                bufferedResponse = SuperTokensInterceptor.bufferBody(response);
+            } catch (IOException e) {
+                responseCallback.onFailure(this, e);
+                return;
+            } finally {
+                response.close();
+            }
+
+            AsyncOperations.refresh(applicationContext, preRequestLocalSessionState, SuperTokensInterceptor.getRefreshTransport(client)).addCallback(new SessionFuture.Callback<Utils.Unauthorised>() {
+                @Override
+                public void onSuccess(Utils.Unauthorised result) {
+                    if (result.status == Utils.Unauthorised.UnauthorisedStatus.RETRY) {
+                        send(responseCallback);
+                    } else if (result.error != null) {
+                        responseCallback.onFailure(SuperTokensCall.this, result.error);
+                    } else {
+                        deliverResponse(responseCallback, bufferedResponse);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    responseCallback.onFailure(SuperTokensCall.this, error instanceof IOException ? (IOException) error : new IOException(error));
+                }
+            });
+        }
+
+        private void deliverResponse(Callback responseCallback, Response response) {
+            try {
+                responseCallback.onResponse(this, response);
+            } catch (IOException e) {
+                // Same as OkHttp, onFailure is not called once onResponse has been
+                Logger.log("SuperTokens: the callback of " + originalRequest.url() + " threw an error", e);
+            }
+        }
+
+        private static boolean hasSessionChanged(Utils.LocalSessionState preRequestLocalSessionState, Utils.LocalSessionState localSessionState) {
+            if (preRequestLocalSessionState.status != localSessionState.status) {
+                return true;
+            }
+
+            return localSessionState.lastAccessTokenUpdate != null && !localSessionState.lastAccessTokenUpdate.equals(preRequestLocalSessionState.lastAccessTokenUpdate);
+        }
+
+        // The callback passed to enqueue always receives this call, not the one it wraps
+        private Callback wrapCallback(final Callback responseCallback) {
+            return new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    responseCallback.onFailure(SuperTokensCall.this, e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    responseCallback.onResponse(SuperTokensCall.this, response);
+                }
+            };
+        }
+
+        private void markExecuted() {
+            if (!isExecuted.compareAndSet(false, true)) {
+                throw new IllegalStateException("Already Executed");
+            }
+        }
+
+        @Override
+        public void cancel() {
+            isCanceled = true;
+            currentCall.cancel();
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return isExecuted.get();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return isCanceled;
+        }
+
+        @Override
+        public Timeout timeout() {
+            return currentCall.timeout();
+        }
+
+        @Override
+        public Call clone() {
+            return new SuperTokensCall(client, originalRequest);
+        }
+    }
+}
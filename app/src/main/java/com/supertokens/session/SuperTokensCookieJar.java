@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+import okhttp3.Cookie;
+import okhttp3.CookieJar;
+import okhttp3.HttpUrl;
+
+/**
+ * A {@link CookieJar} for using cookie based sessions with OkHttp, without a third party cookie jar.
+ *
+ * Cookies are persisted in the {@link SessionStorage} that the session is stored in. Finding the cookies for a
+ * request only looks at the cookies of the request's host and its parent domains, and the cookies of responses from
+ * the session's API are written in the same storage transaction as the session tokens of that response.
+ *
+ * All instances share the same cookies.
+ */
+@SuppressWarnings("unused")
+public class SuperTokensCookieJar implements CookieJar {
+    private final Context applicationContext;
+
+    public SuperTokensCookieJar(Context context) {
+        this.applicationContext = context.getApplicationContext();
+        SessionCookieStore.register();
+    }
+
+    @Override
+    public void saveFromResponse(@NotNull HttpUrl url, @NotNull List<Cookie> cookies) {
+        SessionCookieStore.saveFromResponse(applicationContext, url, cookies);
+    }
+
+    @NotNull
+    @Override
+    public List<Cookie> loadForRequest(@NotNull HttpUrl url) {
+        return SessionCookieStore.loadForRequest(applicationContext, url);
+    }
+}
@@ -269,8 +269,9 @@ public class SuperTokensCustomHttpURLConnection extends HttpURLConnection {
         }
 
 
-        String accessToken = Utils.getTokenForHeaderAuth(Utils.TokenType.ACCESS, applicationContext);
-        String refreshToken = Utils.getTokenForHeaderAuth(Utils.TokenType.REFRESH, applicationContext);
+        TokenCache.Tokens tokens = TokenCache.get(applicationContext);
+        String accessToken = tokens.accessToken;
+        String refreshToken = tokens.refreshToken;
         if (accessToken != null && refreshToken != null && (value.equals("Bearer " + accessToken) || value.equals("bearer " + accessToken))) {
             wasAuthHeaderRemovedInitially = true;
             // We ignore the attempt to set the header because it matches the existing access token
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Adds the session headers to requests and saves the tokens from their responses, without handling session expiry
+ * itself. It is meant to be used together with {@link SuperTokensAuthenticator}, which refreshes the session when a
+ * request fails with a 401 and lets OkHttp retry it:
+ *
+ * <pre>
+ * OkHttpClient client = new OkHttpClient.Builder()
+ *         .addInterceptor(new SuperTokensHeaderInterceptor())
+ *         .authenticator(new SuperTokensAuthenticator(SuperTokensInterceptor.buildRefreshClient(baseClient)))
+ *         .build();
+ * </pre>
+ *
+ * Use either this pair or {@link SuperTokensInterceptor}, not both.
+ */
+@SuppressWarnings("unused")
+public class SuperTokensHeaderInterceptor implements Interceptor {
+    /**
+     * Added as a tag to every request that the session headers were added to, so that the authenticator knows which
+     * session the request was made with and can sign the retried request again.
+     */
+    static class SignedRequest {
+        final Utils.LocalSessionState preRequestLocalSessionState;
+        // False if the app set its own Authorization header, which is then kept for retries
+        final boolean isAuthHeaderFromSession;
+
+        SignedRequest(Utils.LocalSessionState preRequestLocalSessionState, boolean isAuthHeaderFromSession) {
+            this.preRequestLocalSessionState = preRequestLocalSessionState;
+            this.isAuthHeaderFromSession = isAuthHeaderFromSession;
+        }
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        if (!SuperTokens.isInitCalled) {
+            throw new IOException("SuperTokens.init function needs to be called before using interceptors");
+        }
+
+        Context applicationContext = SuperTokens.contextWeakReference.get();
+        if (applicationContext == null) {
+            throw new IOException("Context is null");
+        }
+
+        Request request = chain.request();
+        if (!SuperTokens.interceptionMatcher.shouldDoInterception(request.url().host())
+                || request.url().toString().equals(SuperTokens.refreshTokenUrl)) {
+            return chain.proceed(request);
+        }
+
+        Request signedRequest;
+        RefreshCoordinator.refreshAPILock.readLock().lock();
+        try {
+            boolean removeAuthHeader = SuperTokensInterceptor.shouldRemoveAuthHeader(request, applicationContext);
+            signedRequest = sign(request, applicationContext, removeAuthHeader);
+        } finally {
+            RefreshCoordinator.refreshAPILock.readLock().unlock();
+        }
+
+        Response response = chain.proceed(signedRequest);
+
+        // OkHttp passes 401 responses to the authenticator, which already saved their tokens
+        boolean isHandledByAuthenticator = response.code() == 401 && response.code() == SuperTokens.config.sessionExpiredStatusCode;
+        if (!isHandledByAuthenticator) {
+            SignedRequest signed = response.request().tag(SignedRequest.class);
+            if (signed == null) {
+                signed = signedRequest.tag(SignedRequest.class);
+            }
+
+            saveTokenFromResponse(response, applicationContext, signed.preRequestLocalSessionState);
+        }
+
+        return response;
+    }
+
+    /**
+     * Adds the session headers and the {@link SignedRequest} tag to the request. Has to be called with the read lock
+     * of the refresh API lock held.
+     */
+    static Request sign(Request request, Context applicationContext, boolean removeAuthHeader) {
+        Utils.LocalSessionState preRequestLocalSessionState = Utils.getLocalSessionState(applicationContext);
+        boolean hasOwnAuthHeader = !removeAuthHeader
+                && (request.header("Authorization") != null || request.header("authorization") != null);
+
+        Request.Builder builder = request.newBuilder();
+        SuperTokensInterceptor.addSessionHeaders(request, builder, applicationContext, preRequestLocalSessionState, removeAuthHeader);
+        builder.tag(SignedRequest.class, new SignedRequest(preRequestLocalSessionState, !hasOwnAuthHeader));
+        return builder.build();
+    }
+
+    static void saveTokenFromResponse(Response response, Context applicationContext, Utils.LocalSessionState preRequestLocalSessionState) {
+        RefreshCoordinator.refreshAPILock.readLock().lock();
+        try {
+            if (preRequestLocalSessionState.isOutdatedByRefresh()) {
+                return;
+            }
+
+            Utils.saveTokenFromHeaders(response, applicationContext);
+            Utils.fireSessionUpdateEventsIfNecessary(
+                    preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS,
+                    response.code(),
+                    response.header(Constants.FRONT_TOKEN_HEADER_KEY)
+            );
+        } finally {
+            RefreshCoordinator.refreshAPILock.readLock().unlock();
+        }
+    }
+}
@@ -18,7 +18,11 @@ package com.supertokens.session;
 
 import android.content.Context;
 
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.CookieManager;
 import java.net.HttpCookie;
 import java.net.HttpURLConnection;
@@ -28,13 +32,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @SuppressWarnings("unused")
 public class SuperTokensHttpURLConnection {
-    private static final Object refreshTokenLock = new Object();
-    private static final ReentrantReadWriteLock refreshAPILock = new ReentrantReadWriteLock();
-
     private static void setAuthorizationHeaderIfRequired(SuperTokensCustomHttpURLConnection connection, Context context) {
         String authHeader = Utils.getAuthorizationHeaderIfExists(false, context);
 
@@ -46,14 +46,6 @@ public class SuperTokensHttpURLConnection {
         }
     }
 
-    private static void setAuthorizationHeaderIfRequiredForRefresh(HttpURLConnection connection, Context context) {
-        String authHeader = Utils.getAuthorizationHeaderIfExists(true, context);
-        // NOTE: Checking for an existing auth header is not necessary for a refresh API call.
-        if (authHeader != null) {
-            connection.setRequestProperty("Authorization", authHeader);
-        }
-    }
-
     private static void manuallySetCookiesFromResponse(URL url, HttpURLConnection connection) throws IOException, IllegalAccessException {
         /*
             Android has a bug where it does not set cookies when the API url path
@@ -114,6 +106,28 @@ public class SuperTokensHttpURLConnection {
         }
     }
 
+    // Refreshes the session if the request would otherwise be sent with an access token that has already expired.
+    // Returns null if the access token has not expired, otherwise the result of the refresh. The request should only
+    // be sent if that is RETRY.
+    @Nullable
+    private static Utils.Unauthorised refreshIfAccessTokenExpired(Context applicationContext) {
+        Utils.LocalSessionState localSessionState;
+        boolean isAccessTokenExpired;
+        RefreshCoordinator.refreshAPILock.readLock().lock();
+        try {
+            localSessionState = Utils.getLocalSessionState(applicationContext);
+            isAccessTokenExpired = RefreshCoordinator.isAccessTokenExpired(localSessionState, applicationContext);
+        } finally {
+            RefreshCoordinator.refreshAPILock.readLock().unlock();
+        }
+
+        if (!isAccessTokenExpired) {
+            return null;
+        }
+
+        return onUnauthorisedResponse(localSessionState, applicationContext);
+    }
+
     public static HttpURLConnection newRequest(URL url, PreConnectCallback preConnectCallback) throws IllegalAccessException, IOException {
         if ( !SuperTokens.isInitCalled ) {
             throw new IllegalAccessException("SuperTokens.init function needs to be called before using newRequest");
@@ -124,7 +138,7 @@ public class SuperTokensHttpURLConnection {
             throw new IllegalAccessException("Context is null");
         }
 
-        boolean doNotDoInterception = !Utils.shouldDoInterceptionBasedOnUrl(url.toString(), SuperTokens.config.apiDomain, SuperTokens.config.sessionTokenBackendDomain);
+        boolean doNotDoInterception = !SuperTokens.interceptionMatcher.shouldDoInterception(InterceptionMatcher.stripIPv6Brackets(url.getHost()));
 
         if (doNotDoInterception) {
             String errorMessage = "Trying to call newRequest with a URL that cannot be handled by SuperTokens.\n";
@@ -133,13 +147,31 @@ public class SuperTokensHttpURLConnection {
         }
 
         int sessionRefreshAttempts = 0;
+
+        if (SuperTokens.config.refreshBeforeRequestIfExpired && SuperTokens.config.maxRetryAttemptsForSessionRefresh > 0) {
+            Utils.Unauthorised preRequestRefresh = refreshIfAccessTokenExpired(applicationContext);
+            if (preRequestRefresh != null) {
+                sessionRefreshAttempts++;
+
+                if (preRequestRefresh.status != Utils.Unauthorised.UnauthorisedStatus.RETRY) {
+                    if (preRequestRefresh.error != null) {
+                        throw preRequestRefresh.error;
+                    }
+
+                    return new SessionExpiredConnection(url);
+                }
+            }
+        }
+
         HttpURLConnection connection;
         SuperTokensCustomHttpURLConnection customConnection = null;
         while (true) {
             Utils.LocalSessionState preRequestLocalSessionState;
             int responseCode;
-            // TODO: write comment as to why we have this lock here. Do we also have this lock for iOS and website package?
-            refreshAPILock.readLock().lock();
+            // The lock makes sure the tokens we attach (and the pre request state we record) are not in the middle of
+            // being replaced by a refresh. It is not held across the network call, a refresh that completes while this
+            // request is in flight changes the last access token update so a 401 for this request is simply retried.
+            RefreshCoordinator.refreshAPILock.readLock().lock();
             try {
                 boolean wasAuthHeaderRemovedInitially = customConnection != null && customConnection.getWasAuthHeaderRemovedInitially();
                 connection = (HttpURLConnection) url.openConnection();
@@ -166,26 +198,38 @@ public class SuperTokensHttpURLConnection {
 
                 customConnection.setRequestProperty("st-auth-mode", SuperTokens.config.tokenTransferMethod);
                 setAuthorizationHeaderIfRequired(customConnection, applicationContext);
+            } finally {
+                RefreshCoordinator.refreshAPILock.readLock().unlock();
+            }
 
-                // This will allow the user to set headers or modify request in anyway they want
-                // TODO NEMI: Replace this with pre api hook when implemented
-                if (preConnectCallback != null) {
-                    preConnectCallback.doAction(customConnection);
-                }
+            // This will allow the user to set headers or modify request in anyway they want
+            // TODO NEMI: Replace this with pre api hook when implemented
+            if (preConnectCallback != null) {
+                preConnectCallback.doAction(customConnection);
+            }
+
+            customConnection.connect();
 
-                customConnection.connect();
+            responseCode = customConnection.getResponseCode();
 
-                responseCode = customConnection.getResponseCode();
-                Utils.saveTokenFromHeaders(customConnection, applicationContext);
+            RefreshCoordinator.refreshAPILock.readLock().lock();
+            try {
+                // If the session was refreshed while the request was in flight a 401 is retried with the new tokens
+                boolean isOutdatedByRefresh = preRequestLocalSessionState.isOutdatedByRefresh();
+                if (!isOutdatedByRefresh) {
+                    Utils.saveTokenFromHeaders(customConnection, applicationContext);
+                }
                 manuallySetCookiesFromResponse(url, customConnection);
 
-                Utils.fireSessionUpdateEventsIfNecessary(
-                        preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS,
-                        responseCode,
-                        customConnection.getHeaderField(Constants.FRONT_TOKEN_HEADER_KEY)
-                );
+                if (!isOutdatedByRefresh) {
+                    Utils.fireSessionUpdateEventsIfNecessary(
+                            preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS,
+                            responseCode,
+                            customConnection.getHeaderField(Constants.FRONT_TOKEN_HEADER_KEY)
+                    );
+                }
             } finally {
-                refreshAPILock.readLock().unlock();
+                RefreshCoordinator.refreshAPILock.readLock().unlock();
             }
 
             if (responseCode == SuperTokens.config.sessionExpiredStatusCode) {
@@ -196,7 +240,7 @@ public class SuperTokensHttpURLConnection {
                  */
                 if (sessionRefreshAttempts >= SuperTokens.config.maxRetryAttemptsForSessionRefresh) {
                     String errorMsg = "Received a 401 response from " + url + ". Attempted to refresh the session and retry the request with the updated session tokens " + SuperTokens.config.maxRetryAttemptsForSessionRefresh + " times, but each attempt resulted in a 401 error. The maximum session refresh limit has been reached. Please investigate your API. To increase the session refresh attempts, update maxRetryAttemptsForSessionRefresh in the config.";
-                    System.err.println(errorMsg);
+                    Logger.log(errorMsg);
                     throw new IllegalAccessException(errorMsg);
                 }
 
@@ -224,101 +268,80 @@ public class SuperTokensHttpURLConnection {
     }
 
     static Utils.Unauthorised onUnauthorisedResponse(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext) {
-        // this is intentionally not put in a loop because the loop in other projects is because locking has a timeout
-        HttpURLConnection refreshTokenConnection = null;
-        try {
-            refreshAPILock.writeLock().lock();
-            Utils.LocalSessionState postLockLocalSessionState = Utils.getLocalSessionState(applicationContext);
-            if ( postLockLocalSessionState.status == Utils.LocalSessionStateStatus.NOT_EXISTS ) {
-                SuperTokens.config.eventHandler.handleEvent(EventHandler.EventType.UNAUTHORISED);
-                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.SESSION_EXPIRED);
-            }
-
-            if ( postLockLocalSessionState.status != preRequestLocalSessionState.status ||
-                    (postLockLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS &&
-                            preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS &&
-                            postLockLocalSessionState.lastAccessTokenUpdate != preRequestLocalSessionState.lastAccessTokenUpdate) ) {
-                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.RETRY);
-            }
+        return RefreshCoordinator.onUnauthorisedResponse(preRequestLocalSessionState, applicationContext, refreshTransport);
+    }
 
+    static final RefreshCoordinator.RefreshTransport refreshTransport = new RefreshCoordinator.RefreshTransport() {
+        @Override
+        public RefreshCoordinator.RefreshResponse callRefreshAPI(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext) throws Exception {
             URL refreshTokenUrl = new URL(SuperTokens.refreshTokenUrl);
-            refreshTokenConnection = (HttpURLConnection) refreshTokenUrl.openConnection();
-            refreshTokenConnection.setRequestMethod("POST");
-
-            if (preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS) {
-                String antiCSRFToken = AntiCSRF.getToken(applicationContext, preRequestLocalSessionState.lastAccessTokenUpdate);
-
-                if (antiCSRFToken != null) {
-                    refreshTokenConnection.setRequestProperty(Constants.CSRF_HEADER_KEY, antiCSRFToken);
-                }
-            }
-
-            refreshTokenConnection.setRequestProperty("rid", SuperTokens.rid);
-            refreshTokenConnection.setRequestProperty("fdi-version", Utils.join(Version.supported_fdi, ","));
-            refreshTokenConnection.setRequestProperty("st-auth-mode", SuperTokens.config.tokenTransferMethod);
-            setAuthorizationHeaderIfRequiredForRefresh(refreshTokenConnection, applicationContext);
+            HttpURLConnection refreshTokenConnection = (HttpURLConnection) refreshTokenUrl.openConnection();
+            try {
+                refreshTokenConnection.setRequestMethod("POST");
 
-            Map<String, String> customRefreshHeaders = SuperTokens.config.customHeaderMapper.getRequestHeaders(CustomHeaderProvider.RequestType.REFRESH);
-            if (customRefreshHeaders != null) {
-                for (Map.Entry<String, String> entry : customRefreshHeaders.entrySet()) {
+                for (Map.Entry<String, String> entry : RefreshCoordinator.getRefreshRequestHeaders(preRequestLocalSessionState, applicationContext).entrySet()) {
                     refreshTokenConnection.setRequestProperty(entry.getKey(), entry.getValue());
                 }
-            }
-
-            refreshTokenConnection.connect();
 
-            Utils.saveTokenFromHeaders(new SuperTokensCustomHttpURLConnection(refreshTokenConnection, applicationContext), applicationContext);
-            manuallySetCookiesFromResponse(refreshTokenUrl, refreshTokenConnection);
+                refreshTokenConnection.connect();
 
-            final int responseCode = refreshTokenConnection.getResponseCode();
+                Utils.saveTokenFromHeaders(new SuperTokensCustomHttpURLConnection(refreshTokenConnection, applicationContext), applicationContext);
+                manuallySetCookiesFromResponse(refreshTokenUrl, refreshTokenConnection);
 
-            boolean isUnauthorised = responseCode == SuperTokens.config.sessionExpiredStatusCode;
-
-            if (isUnauthorised && refreshTokenConnection.getHeaderField(Constants.FRONT_TOKEN_HEADER_KEY) != null) {
-                FrontToken.setItem(applicationContext, "remove");
+                return new RefreshCoordinator.RefreshResponse(
+                        refreshTokenConnection.getResponseCode(),
+                        refreshTokenConnection.getResponseMessage(),
+                        refreshTokenConnection.getHeaderField(Constants.FRONT_TOKEN_HEADER_KEY)
+                );
+            } finally {
+                refreshTokenConnection.disconnect();
             }
+        }
+    };
+
+    /**
+     * Returned instead of sending the request if the session expired while refreshing it before the request, this is
+     * what the request would have resulted in had it been sent with the expired access token.
+     */
+    private static class SessionExpiredConnection extends HttpURLConnection {
+        SessionExpiredConnection(URL url) {
+            super(url);
+            this.responseCode = SuperTokens.config.sessionExpiredStatusCode;
+            this.responseMessage = "Session expired";
+            this.connected = true;
+        }
 
-            String frontTokenInHeaders = refreshTokenConnection.getHeaderField(Constants.FRONT_TOKEN_HEADER_KEY);
-
-            Utils.fireSessionUpdateEventsIfNecessary(
-                    preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS,
-                    responseCode,
-                    frontTokenInHeaders == null ? "remove" : frontTokenInHeaders
-            );
+        @Override
+        public void connect() {
+        }
 
-            if (responseCode >= 300) {
-                throw new IOException(refreshTokenConnection.getResponseMessage());
-            }
+        @Override
+        public void disconnect() {
+        }
 
-            if (Utils.getLocalSessionState(applicationContext).status == Utils.LocalSessionStateStatus.NOT_EXISTS) {
-                // The execution should never come here.. but just in case.
-                // removed by server. So we logout
-                // we do not send "UNAUTHORISED" event here because
-                // this is a result of the refresh API returning a session expiry, which
-                // means that the frontend did not know for sure that the session existed
-                // in the first place.
-                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.SESSION_EXPIRED);
-            }
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
 
-            SuperTokens.config.eventHandler.handleEvent(EventHandler.EventType.REFRESH_SESSION);
-            return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.RETRY);
-        } catch (Exception e) {
-            IOException ioe = new IOException(e);
-            if (e instanceof IOException) {
-                ioe = (IOException) e;
-            }
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
 
-            if ( Utils.getLocalSessionState(applicationContext).status == Utils.LocalSessionStateStatus.NOT_EXISTS ) {
-                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.SESSION_EXPIRED);
-            }
+        @Override
+        public String getResponseMessage() {
+            return responseMessage;
+        }
 
-            return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.API_ERROR, ioe);
+        @Override
+        public InputStream getInputStream() throws IOException {
+            throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        }
 
-        } finally {
-            refreshAPILock.writeLock().unlock();
-            if ( refreshTokenConnection != null ) {
-                refreshTokenConnection.disconnect();
-            }
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
         }
     }
 
@@ -18,26 +18,71 @@ package com.supertokens.session;
 
 import android.content.Context;
 
+import androidx.annotation.Nullable;
+
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
 
+import okhttp3.Authenticator;
+import okhttp3.Call;
 import okhttp3.FormBody;
 import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 @SuppressWarnings("unused")
 public class SuperTokensInterceptor implements Interceptor {
-    private static final Object refreshTokenLock = new Object();
-    private static final ReentrantReadWriteLock refreshAPILock = new ReentrantReadWriteLock();
+    private static final long REFRESH_TIMEOUT_SECONDS = 10;
+    private static final long REFRESH_CALL_TIMEOUT_SECONDS = 20;
+
+    // If set, calls to the refresh API are made with this instead of through the interceptor chain of the request
+    @Nullable
+    private final Call.Factory refreshCallFactory;
+
+    public SuperTokensInterceptor() {
+        this(null);
+    }
+
+    /**
+     * Creates an interceptor that calls the refresh API with the given client instead of sending the refresh request
+     * through the interceptor chain of the request that failed. This way the other interceptors of the app do not run
+     * for the refresh call and it does not use the timeouts of the original request. See {@link #buildRefreshClient}.
+     */
+    public SuperTokensInterceptor(@Nullable Call.Factory refreshCallFactory) {
+        this.refreshCallFactory = refreshCallFactory;
+        if (refreshCallFactory != null) {
+            ProactiveRefreshScheduler.setRefreshTransport(getRefreshTransport(refreshCallFactory));
+        }
+    }
 
+    /**
+     * Builds a client for calling the refresh API from the app's client. It keeps everything that affects how the
+     * server is reached (connection pool, dispatcher, cookie jar, SSL and certificate pinning, proxy, DNS, protocols)
+     * but has none of its interceptors or authenticator, and uses short timeouts. The timeouts can be changed with
+     * newBuilder() on the returned client.
+     */
+    public static OkHttpClient buildRefreshClient(OkHttpClient appClient) {
+        OkHttpClient.Builder builder = appClient.newBuilder();
+        builder.interceptors().clear();
+        builder.networkInterceptors().clear();
+        return builder
+                .authenticator(Authenticator.NONE)
+                .connectTimeout(REFRESH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(REFRESH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .writeTimeout(REFRESH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .callTimeout(REFRESH_CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
 
     // Returns true authorization header in the provided request matches the current local access token.
     // This is used to decide whether the authorization header should be removed before making the request.
-    private boolean shouldRemoveAuthHeader(Request request, Context context) {
+    static boolean shouldRemoveAuthHeader(Request request, Context context) {
         String originalHeader = request.header("Authorization");
 
         if (originalHeader == null) {
@@ -45,8 +90,9 @@ public class SuperTokensInterceptor implements Interceptor {
         }
 
         if (originalHeader != null) {
-            String accessToken = Utils.getTokenForHeaderAuth(Utils.TokenType.ACCESS, context);
-            String refreshToken = Utils.getTokenForHeaderAuth(Utils.TokenType.REFRESH, context);
+            TokenCache.Tokens tokens = TokenCache.get(context);
+            String accessToken = tokens.accessToken;
+            String refreshToken = tokens.refreshToken;
 
             if (accessToken != null && refreshToken != null && (originalHeader.equals("Bearer " + accessToken) || originalHeader.equals("bearer " + accessToken))) {
                 return true;
@@ -56,16 +102,44 @@ public class SuperTokensInterceptor implements Interceptor {
         return false;
     }
 
+    /**
+     * Adds the anti-csrf, st-auth-mode, rid and Authorization headers to builder, which has to be created from request.
+     * The headers are only added to the builder so that the request is built once, with any other changes the caller
+     * makes. If removeAuthHeader is true the Authorization header of the request is replaced with the one of the
+     * current session.
+     */
+    static void addSessionHeaders(
+            Request request,
+            Request.Builder builder,
+            Context applicationContext,
+            Utils.LocalSessionState preRequestLocalSessionState,
+            boolean removeAuthHeader
+    ) {
+        String antiCSRFToken = AntiCSRF.getToken(applicationContext, preRequestLocalSessionState.lastAccessTokenUpdate);
+        if (antiCSRFToken != null) {
+            builder.header(Constants.CSRF_HEADER_KEY, antiCSRFToken);
+        }
 
-    private static Request setAuthorizationHeaderIfRequired(Request request, Request.Builder builder, Context context, boolean addRefreshToken) {
-        String authHeader = Utils.getAuthorizationHeaderIfExists(addRefreshToken, context);
-        boolean hasExistingAuthHeader = request.header("Authorization") != null || request.header("authorization") != null;
+        builder.header("st-auth-mode", SuperTokens.config.tokenTransferMethod);
 
-        if (authHeader != null && !hasExistingAuthHeader) {
-            builder.header("Authorization", authHeader);
+        if (request.header("rid") == null) {
+            builder.header("rid", "anti-csrf");
         }
 
-        return builder.build();
+        boolean hasExistingAuthHeader = false;
+        if (removeAuthHeader) {
+            builder.removeHeader("Authorization");
+            builder.removeHeader("authorization");
+        } else {
+            hasExistingAuthHeader = request.header("Authorization") != null || request.header("authorization") != null;
+        }
+
+        if (!hasExistingAuthHeader) {
+            String authHeader = Utils.getAuthorizationHeaderIfExists(false, applicationContext);
+            if (authHeader != null) {
+                builder.header("Authorization", authHeader);
+            }
+        }
     }
 
     private static Response makeRequest(Chain chain, Request request) throws IOException {
@@ -84,14 +158,14 @@ public class SuperTokensInterceptor implements Interceptor {
             throw new IOException("Context is null");
         }
 
-        String requestUrl = chain.request().url().url().toString();
-
-        boolean doNotDoInterception = !Utils.shouldDoInterceptionBasedOnUrl(requestUrl, SuperTokens.config.apiDomain, SuperTokens.config.sessionTokenBackendDomain);
+        boolean doNotDoInterception = !SuperTokens.interceptionMatcher.shouldDoInterception(chain.request().url().host());
 
         if (doNotDoInterception) {
             return chain.proceed(chain.request());
         }
 
+        String requestUrl = chain.request().url().toString();
+
         if (requestUrl.equals(SuperTokens.refreshTokenUrl)) {
             /**
              * We don't want to intercept calls to the refresh token endpoint. Return the response of the request.
@@ -104,53 +178,73 @@ public class SuperTokensInterceptor implements Interceptor {
 
         boolean wasAuthHeaderRemovedInitially = false;
         int sessionRefreshAttempts = 0;
-        while (true) {
-            Request.Builder requestBuilder = chain.request().newBuilder();
-            Utils.LocalSessionState preRequestLocalSessionState;
-            Response response;
-            refreshAPILock.readLock().lock();
-            try {
-                preRequestLocalSessionState = Utils.getLocalSessionState(applicationContext);
-                String antiCSRFToken = AntiCSRF.getToken(applicationContext, preRequestLocalSessionState.lastAccessTokenUpdate);
 
-                if (antiCSRFToken != null) {
-                    requestBuilder.header(Constants.CSRF_HEADER_KEY, antiCSRFToken);
-                }
-
-                requestBuilder.header("st-auth-mode", SuperTokens.config.tokenTransferMethod);
+        if (SuperTokens.config.refreshBeforeRequestIfExpired && SuperTokens.config.maxRetryAttemptsForSessionRefresh > 0
+                && chain.request().tag(SuperTokensCallFactory.DeferredRefresh.class) == null) {
+            Utils.Unauthorised preRequestRefresh = refreshIfAccessTokenExpired(applicationContext, chain);
+            if (preRequestRefresh != null) {
+                sessionRefreshAttempts++;
 
-                Request request = requestBuilder.build();
+                if (preRequestRefresh.status != Utils.Unauthorised.UnauthorisedStatus.RETRY) {
+                    if (preRequestRefresh.error != null) {
+                        throw preRequestRefresh.error;
+                    }
 
-                if (request.header("rid") == null) {
-                    request = request.newBuilder().header("rid", "anti-csrf").build();
+                    return buildSessionExpiredResponse(chain.request());
                 }
+            }
+        }
 
+        while (true) {
+            Utils.LocalSessionState preRequestLocalSessionState;
+            Request request;
+            // The lock is only held while reading the session and while saving the tokens of the response, never
+            // across the network call. A refresh that completes while this request is in flight changes the last
+            // access token update, so a 401 for this request will be retried instead of refreshing again.
+            RefreshCoordinator.refreshAPILock.readLock().lock();
+            try {
+                preRequestLocalSessionState = Utils.getLocalSessionState(applicationContext);
                 // Check if the Authorization header should be removed
                 // This is necessary to ensure that if the auth header was removed initially,
                 // it remains removed in subsequent retries even if the token has changed.
-                if (wasAuthHeaderRemovedInitially || shouldRemoveAuthHeader(request, applicationContext)) {
-                    Request.Builder builder = request.newBuilder();
-                    builder.removeHeader("Authorization");
-                    builder.removeHeader("authorization");
-                    request = builder.build();
-
+                if (!wasAuthHeaderRemovedInitially && shouldRemoveAuthHeader(chain.request(), applicationContext)) {
                     wasAuthHeaderRemovedInitially = true;
                 }
 
-                request = setAuthorizationHeaderIfRequired(request, request.newBuilder(), applicationContext, false);
+                // All the headers are added to one builder so the request is only copied once per attempt
+                Request.Builder requestBuilder = chain.request().newBuilder();
+                addSessionHeaders(chain.request(), requestBuilder, applicationContext, preRequestLocalSessionState, wasAuthHeaderRemovedInitially);
+                request = requestBuilder.build();
+            } finally {
+                RefreshCoordinator.refreshAPILock.readLock().unlock();
+            }
 
-                response = makeRequest(chain, request);
-                Utils.saveTokenFromHeaders(response, applicationContext);
-                Utils.fireSessionUpdateEventsIfNecessary(
-                        preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS,
-                        response.code(),
-                        response.header(Constants.FRONT_TOKEN_HEADER_KEY)
-                );
+            Response response = makeRequest(chain, request);
+
+            RefreshCoordinator.refreshAPILock.readLock().lock();
+            try {
+                // If the session was refreshed while the request was in flight a 401 is retried with the new tokens
+                if (!preRequestLocalSessionState.isOutdatedByRefresh()) {
+                    Utils.saveTokenFromHeaders(response, applicationContext);
+                    Utils.fireSessionUpdateEventsIfNecessary(
+                            preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS,
+                            response.code(),
+                            response.header(Constants.FRONT_TOKEN_HEADER_KEY)
+                    );
+                }
             } finally {
-                refreshAPILock.readLock().unlock();
+                RefreshCoordinator.refreshAPILock.readLock().unlock();
             }
 
             if (response.code() == SuperTokens.config.sessionExpiredStatusCode) {
+                SuperTokensCallFactory.DeferredRefresh deferredRefresh = chain.request().tag(SuperTokensCallFactory.DeferredRefresh.class);
+                if (deferredRefresh != null) {
+                    // The call was enqueued through SuperTokensCallFactory, which refreshes the session and retries
+                    // the call without blocking this thread
+                    deferredRefresh.preRequestLocalSessionState = preRequestLocalSessionState;
+                    return response;
+                }
+
                 /**
                  * An API may return a 401 error response even with a valid session, causing a session refresh loop in the interceptor.
                  * To prevent this infinite loop, we break out of the loop after retrying the original request a specified number of times.
@@ -158,142 +252,186 @@ public class SuperTokensInterceptor implements Interceptor {
                  */
                 if (sessionRefreshAttempts >= SuperTokens.config.maxRetryAttemptsForSessionRefresh) {
                     String errorMsg = "Received a 401 response from " + requestUrl + ". Attempted to refresh the session and retry the request with the updated session tokens " + SuperTokens.config.maxRetryAttemptsForSessionRefresh + " times, but each attempt resulted in a 401 error. The maximum session refresh limit has been reached. Please investigate your API. To increase the session refresh attempts, update maxRetryAttemptsForSessionRefresh in the config.";
-                    System.err.println(errorMsg);
+                    Logger.log(errorMsg);
+                    response.close();
                     throw new IOException(errorMsg);
                 }
 
-                // Cloning the response object, if retry is false then we return this
-                Response clonedResponse = new Response.Builder()
-                        .body(response.peekBody(Long.MAX_VALUE))
-                        .cacheResponse(response.cacheResponse())
-                        .code(response.code())
-                        .handshake(response.handshake())
-                        .headers(response.headers())
-                        .message(response.message())
-                        .networkResponse(response.networkResponse())
-                        .priorResponse(response.priorResponse())
-                        .protocol(response.protocol())
-                        .receivedResponseAtMillis(response.receivedResponseAtMillis())
-                        .request(response.request())
-                        .sentRequestAtMillis(response.sentRequestAtMillis())
-                        .build();
-                response.close();
-
-                Utils.Unauthorised unauthorisedResponse = onUnauthorisedResponse(preRequestLocalSessionState, applicationContext, chain);
+                // If retry is false then we return this response
+                PendingUnauthorisedResponse pendingResponse = new PendingUnauthorisedResponse(response);
+                Utils.Unauthorised unauthorisedResponse = onUnauthorisedResponse(preRequestLocalSessionState, applicationContext, chain, pendingResponse);
 
                 sessionRefreshAttempts++;
 
                 if (unauthorisedResponse.status != Utils.Unauthorised.UnauthorisedStatus.RETRY) {
                     if (unauthorisedResponse.error != null) {
+                        pendingResponse.discard();
                         throw unauthorisedResponse.error;
                     }
 
-                    return clonedResponse;
+                    return pendingResponse.get();
                 }
+
+                pendingResponse.discard();
             } else {
                 return response;
             }
         }
     }
 
-    private static Utils.Unauthorised onUnauthorisedResponse(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext, Chain chain) {
-        // this is intentionally not put in a loop because the loop in other projects is because locking has a timeout
-        Response refreshResponse = null;
+    // Refreshes the session if the request would otherwise be sent with an access token that has already expired.
+    // Returns null if the access token has not expired, otherwise the result of the refresh. The request should only
+    // be sent if that is RETRY.
+    @Nullable
+    private Utils.Unauthorised refreshIfAccessTokenExpired(Context applicationContext, Chain chain) {
+        Utils.LocalSessionState localSessionState;
+        boolean isAccessTokenExpired;
+        RefreshCoordinator.refreshAPILock.readLock().lock();
         try {
-            refreshAPILock.writeLock().lock();
-            Utils.LocalSessionState postLockLocalSessionState = Utils.getLocalSessionState(applicationContext);
-            if (postLockLocalSessionState.status == Utils.LocalSessionStateStatus.NOT_EXISTS) {
-                SuperTokens.config.eventHandler.handleEvent(EventHandler.EventType.UNAUTHORISED);
-                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.SESSION_EXPIRED);
-            }
+            localSessionState = Utils.getLocalSessionState(applicationContext);
+            isAccessTokenExpired = RefreshCoordinator.isAccessTokenExpired(localSessionState, applicationContext);
+        } finally {
+            RefreshCoordinator.refreshAPILock.readLock().unlock();
+        }
 
-            if ( postLockLocalSessionState.status != preRequestLocalSessionState.status ||
-                    (postLockLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS &&
-                            preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS &&
-                            postLockLocalSessionState.lastAccessTokenUpdate != preRequestLocalSessionState.lastAccessTokenUpdate) ) {
-                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.RETRY);
-            }
+        if (!isAccessTokenExpired) {
+            return null;
+        }
+
+        return onUnauthorisedResponse(localSessionState, applicationContext, chain, null);
+    }
+
+    // Returned instead of sending the request if the session expired while refreshing it before the request, this is
+    // what the request would have resulted in had it been sent with the expired access token
+    static Response buildSessionExpiredResponse(Request request) {
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(SuperTokens.config.sessionExpiredStatusCode)
+                .message("Session expired")
+                .body(ResponseBody.create(null, new byte[0]))
+                .build();
+    }
 
-            Request.Builder refreshRequestBuilder = new Request.Builder();
-            refreshRequestBuilder.url(SuperTokens.refreshTokenUrl);
-            refreshRequestBuilder.method("POST", new FormBody.Builder().build());
-            
-            Request refreshRequest = refreshRequestBuilder.build();
+    private Utils.Unauthorised onUnauthorisedResponse(
+            Utils.LocalSessionState preRequestLocalSessionState,
+            Context applicationContext,
+            final Chain chain,
+            @Nullable final PendingUnauthorisedResponse pendingResponse
+    ) {
+        if (refreshCallFactory != null) {
+            // The refresh is a separate call, so the original response can stay open and is only read if it is returned
+            return RefreshCoordinator.onUnauthorisedResponse(preRequestLocalSessionState, applicationContext, getRefreshTransport(refreshCallFactory));
+        }
 
-            if (preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS) {
-                String antiCSRFToken = AntiCSRF.getToken(applicationContext, preRequestLocalSessionState.lastAccessTokenUpdate);
+        return RefreshCoordinator.onUnauthorisedResponse(preRequestLocalSessionState, applicationContext, new RefreshCoordinator.RefreshTransport() {
+            @Override
+            public RefreshCoordinator.RefreshResponse callRefreshAPI(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext) throws Exception {
+                Request refreshRequest = buildRefreshRequest(preRequestLocalSessionState, applicationContext);
 
-                if (antiCSRFToken != null) {
-                    refreshRequestBuilder.header(Constants.CSRF_HEADER_KEY, antiCSRFToken);
+                if (pendingResponse != null) {
+                    // OkHttp does not allow a new request on the chain while the previous response is open
+                    pendingResponse.bufferAndClose();
                 }
+
+                return readRefreshResponse(makeRequest(chain, refreshRequest), applicationContext);
             }
+        });
+    }
 
-            refreshRequestBuilder.header("rid", SuperTokens.rid);
-            refreshRequestBuilder.header("fdi-version", Utils.join(Version.supported_fdi, ","));
-            refreshRequestBuilder.header("st-auth-mode", SuperTokens.config.tokenTransferMethod);
+    // Refreshes the session through the given Call.Factory instead of an interceptor chain
+    static RefreshCoordinator.RefreshTransport getRefreshTransport(final Call.Factory callFactory) {
+        return new RefreshCoordinator.RefreshTransport() {
+            @Override
+            public RefreshCoordinator.RefreshResponse callRefreshAPI(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext) throws Exception {
+                Request refreshRequest = buildRefreshRequest(preRequestLocalSessionState, applicationContext);
+                return readRefreshResponse(callFactory.newCall(refreshRequest).execute(), applicationContext);
+            }
+        };
+    }
 
-            refreshRequestBuilder = setAuthorizationHeaderIfRequired(refreshRequest, refreshRequestBuilder, applicationContext, true).newBuilder();
+    private static Request buildRefreshRequest(Utils.LocalSessionState preRequestLocalSessionState, Context applicationContext) {
+        Request.Builder refreshRequestBuilder = new Request.Builder();
+        refreshRequestBuilder.url(SuperTokens.refreshTokenUrl);
+        refreshRequestBuilder.method("POST", new FormBody.Builder().build());
 
-            Map<String, String> customRefreshHeaders = SuperTokens.config.customHeaderMapper.getRequestHeaders(CustomHeaderProvider.RequestType.REFRESH);
-            if (customRefreshHeaders != null) {
-                for (Map.Entry<String, String> entry : customRefreshHeaders.entrySet()) {
-                    refreshRequestBuilder.header(entry.getKey(), entry.getValue());
-                }
-            }
+        for (Map.Entry<String, String> entry : RefreshCoordinator.getRefreshRequestHeaders(preRequestLocalSessionState, applicationContext).entrySet()) {
+            refreshRequestBuilder.header(entry.getKey(), entry.getValue());
+        }
 
-            refreshRequest = refreshRequestBuilder.build();
-            refreshResponse = makeRequest(chain, refreshRequest);
+        return refreshRequestBuilder.build();
+    }
 
+    // Saves the tokens from the response of the refresh API and closes it
+    private static RefreshCoordinator.RefreshResponse readRefreshResponse(Response refreshResponse, Context applicationContext) {
+        try {
             Utils.saveTokenFromHeaders(refreshResponse, applicationContext);
-            final int code = refreshResponse.code();
+            return new RefreshCoordinator.RefreshResponse(
+                    refreshResponse.code(),
+                    refreshResponse.message(),
+                    refreshResponse.header(Constants.FRONT_TOKEN_HEADER_KEY)
+            );
+        } finally {
+            refreshResponse.close();
+        }
+    }
 
-            boolean isUnauthorised = code == SuperTokens.config.sessionExpiredStatusCode;
+    // Buffers at most maxUnauthorisedResponseBodySize bytes of the body, so that the response can still be returned
+    // after the original one has been closed.
+    static Response bufferBody(Response response) throws IOException {
+        ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
 
-            if (isUnauthorised && refreshResponse.header(Constants.FRONT_TOKEN_HEADER_KEY) != null) {
-                FrontToken.setItem(applicationContext, "remove");
-            }
+        long maxBodySize = SuperTokens.config.maxUnauthorisedResponseBodySize;
+        boolean isTruncated = maxBodySize < Long.MAX_VALUE && body.source().request(maxBodySize + 1);
+        Response.Builder builder = response.newBuilder().body(response.peekBody(maxBodySize));
 
-            String frontTokenInHeaders = refreshResponse.header(Constants.FRONT_TOKEN_HEADER_KEY);
+        if (isTruncated) {
+            builder.removeHeader("Content-Length");
+        }
 
-            Utils.fireSessionUpdateEventsIfNecessary(
-                    preRequestLocalSessionState.status == Utils.LocalSessionStateStatus.EXISTS,
-                    code,
-                    frontTokenInHeaders == null ? "remove" : frontTokenInHeaders
-            );
+        return builder.build();
+    }
 
-            if (code < 200 || code >= 300) {
-                String responseMessage = refreshResponse.message();
-                throw new IOException(responseMessage);
-            }
+    /**
+     * The response that failed with the session expired status code, held while the session is refreshed.
+     *
+     * It is returned as is if the refresh does not call the refresh API (for example because no session exists). The
+     * body is only buffered when the refresh API is called through the same chain, which requires the original
+     * response to be closed first.
+     */
+    private static class PendingUnauthorisedResponse {
+        private Response response;
+        private boolean isBuffered = false;
+
+        PendingUnauthorisedResponse(Response response) {
+            this.response = response;
+        }
 
-            if (Utils.getLocalSessionState(applicationContext).status == Utils.LocalSessionStateStatus.NOT_EXISTS) {
-                // The execution should never come here.. but just in case.
-                // removed by server. So we logout
-                // we do not send "UNAUTHORISED" event here because
-                // this is a result of the refresh API returning a session expiry, which
-                // means that the frontend did not know for sure that the session existed
-                // in the first place.
-                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.SESSION_EXPIRED);
+        void bufferAndClose() throws IOException {
+            if (isBuffered) {
+                return;
             }
 
-            SuperTokens.config.eventHandler.handleEvent(EventHandler.EventType.REFRESH_SESSION);
-            return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.RETRY);
-
-        } catch (Exception e) {
-            IOException ioe = new IOException(e);
-            if (e instanceof IOException) {
-                ioe = (IOException) e;
-            }
-            if (Utils.getLocalSessionState(applicationContext).status == Utils.LocalSessionStateStatus.NOT_EXISTS) {
-                return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.SESSION_EXPIRED);
+            Response original = response;
+            try {
+                response = bufferBody(original);
+            } finally {
+                original.close();
+                isBuffered = true;
             }
+        }
 
-            return new Utils.Unauthorised(Utils.Unauthorised.UnauthorisedStatus.API_ERROR, ioe);
+        Response get() {
+            return response;
+        }
 
-        } finally {
-            refreshAPILock.writeLock().unlock();
-            if (refreshResponse != null) {
-                refreshResponse.close();
+        // Called when the response will not be returned
+        void discard() {
+            if (!isBuffered) {
+                response.close();
             }
         }
     }
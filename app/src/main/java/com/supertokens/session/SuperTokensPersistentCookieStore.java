@@ -19,11 +19,19 @@ package com.supertokens.session;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import androidx.annotation.Nullable;
+
 import java.net.CookieStore;
 import java.net.HttpCookie;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 // TODO: Nemi, what is the need for this file?
 
@@ -37,18 +45,113 @@ public class SuperTokensPersistentCookieStore implements CookieStore {
     private static final String SP_KEY_DELIMITER_REGEX = "\\"
             + SP_KEY_DELIMITER;
     private SharedPreferences sharedPreferences;
+    // Changes are written at most this long after they are made, so that all the cookies of a response (and any
+    // expired cookies removed around the same time) are written with a single transaction
+    static final long WRITE_DELAY_MILLIS = 100;
+    private static ScheduledExecutorService writeExecutor;
+    // The changes that have not been written yet, a null value removes the key
+    private final Map<String, String> pendingWrites = new HashMap<String, String>();
+    private boolean isClearPending = false;
+    private boolean isWriteScheduled = false;
 
     // In memory
     private Map<URI, Set<HttpCookie>> allCookies;
+    // The keys of allCookies grouped by host, each list is sorted by path length, longest first. This lets get()
+    // only look at the URIs of the request's host and its parent domains instead of every stored URI.
+    private Map<String, List<URI>> urisByHost;
+    // Every cookie with a max age, ordered by when it expires, so that expired cookies are removed even if their URI
+    // is never requested. Cookies that are replaced or removed are only marked in the queue, see forgetExpiry.
+    private final PriorityQueue<CookieExpiry> expiryQueue = new PriorityQueue<CookieExpiry>(11, new Comparator<CookieExpiry>() {
+        @Override
+        public int compare(CookieExpiry a, CookieExpiry b) {
+            return a.expiresAt < b.expiresAt ? -1 : (a.expiresAt == b.expiresAt ? 0 : 1);
+        }
+    });
+    // The queue entry of each stored cookie instance that has one
+    private final Map<HttpCookie, CookieExpiry> expiryByCookie = new IdentityHashMap<HttpCookie, CookieExpiry>();
+    private int removedExpiries = 0;
+    // Released once the stored cookies are loaded, every method waits for it before using the maps above
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    private static class CookieExpiry {
+        final URI uri;
+        final HttpCookie cookie;
+        final long expiresAt;
+        boolean isRemoved = false;
+
+        CookieExpiry(URI uri, HttpCookie cookie, long expiresAt) {
+            this.uri = uri;
+            this.cookie = cookie;
+            this.expiresAt = expiresAt;
+        }
+    }
 
     public SuperTokensPersistentCookieStore(Context context) {
         sharedPreferences = context.getSharedPreferences("supertokens-cookie-shared-prefs",
                 Context.MODE_PRIVATE);
-        loadAllFromPersistence();
+        loadAndRelease();
+    }
+
+    /**
+     * Creates a store that loads the stored cookies on the given executor instead of the calling thread, so it can
+     * be created on the main thread (for example in Application.onCreate) without reading and decoding every stored
+     * cookie there. The first call to the store waits for the cookies if they are not loaded yet.
+     */
+    public SuperTokensPersistentCookieStore(Context context, Executor loadExecutor) {
+        sharedPreferences = context.getSharedPreferences("supertokens-cookie-shared-prefs",
+                Context.MODE_PRIVATE);
+        try {
+            loadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loadAndRelease();
+                }
+            });
+        } catch (RuntimeException e) {
+            // The executor rejected the task
+            loadAndRelease();
+        }
+    }
+
+    // The maps are only written here before the latch is released, which makes them visible to the threads waiting
+    // for it. The loading thread does not need the store's lock, so a method waiting while holding it cannot block it.
+    private void loadAndRelease() {
+        try {
+            loadAllFromPersistence();
+        } catch (RuntimeException e) {
+            Logger.log("SuperTokens: could not load the stored cookies", e);
+            allCookies = new HashMap<URI, Set<HttpCookie>>();
+            urisByHost = new HashMap<String, List<URI>>();
+            expiryQueue.clear();
+            expiryByCookie.clear();
+            removedExpiries = 0;
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (loaded.getCount() > 0) {
+            try {
+                loaded.await();
+            } catch (InterruptedException e) {
+                // The cookies are needed to continue, so keep waiting and restore the interrupt afterwards
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void loadAllFromPersistence() {
         allCookies = new HashMap<URI, Set<HttpCookie>>();
+        urisByHost = new HashMap<String, List<URI>>();
+
+        // Cookies stored in the legacy format are written again in the current one, all in a single transaction
+        SharedPreferences.Editor migrationEditor = null;
 
         Map<String, ?> allPairs = sharedPreferences.getAll();
         for (Map.Entry<String, ?> entry : allPairs.entrySet()) {
@@ -57,34 +160,91 @@ public class SuperTokensPersistentCookieStore implements CookieStore {
             try {
                 URI uri = new URI(uriAndName[0]);
                 String encodedCookie = (String) entry.getValue();
-                HttpCookie cookie = new SuperTokensSerializableHttpCookie()
-                        .decode(encodedCookie);
+                SuperTokensSerializableHttpCookie serializableCookie = new SuperTokensSerializableHttpCookie();
+                HttpCookie cookie = serializableCookie.decode(encodedCookie);
+                if (cookie == null) {
+                    continue;
+                }
 
-                Set<HttpCookie> targetCookies = allCookies.get(uri);
-                if (targetCookies == null) {
-                    targetCookies = new HashSet<HttpCookie>();
-                    allCookies.put(uri, targetCookies);
+                if (getOrCreateCookies(uri).add(cookie)) {
+                    trackExpiry(uri, cookie);
+                }
+
+                if (SuperTokensSerializableHttpCookie.isLegacyEncoding(encodedCookie)) {
+                    if (migrationEditor == null) {
+                        migrationEditor = sharedPreferences.edit();
+                    }
+                    migrationEditor.putString(entry.getKey(), serializableCookie.encode(cookie));
                 }
-                targetCookies.add(cookie);
             } catch (URISyntaxException e) {
 //                Log.w(TAG, e);
             }
         }
+
+        if (migrationEditor != null) {
+            migrationEditor.apply();
+        }
     }
 
     @Override
     public synchronized void add(URI uri, HttpCookie cookie) {
+        awaitLoaded();
+        evictExpiredCookies();
         uri = cookieUri(uri, cookie);
 
+        Set<HttpCookie> targetCookies = getOrCreateCookies(uri);
+        HttpCookie replacedCookie = findStoredCookie(targetCookies, cookie);
+        if (replacedCookie != null) {
+            targetCookies.remove(replacedCookie);
+            forgetExpiry(replacedCookie);
+        }
+        targetCookies.add(cookie);
+        trackExpiry(uri, cookie);
+
+        saveToPersistence(uri, cookie);
+    }
+
+    private Set<HttpCookie> getOrCreateCookies(URI uri) {
         Set<HttpCookie> targetCookies = allCookies.get(uri);
         if (targetCookies == null) {
             targetCookies = new HashSet<HttpCookie>();
             allCookies.put(uri, targetCookies);
+            addToHostIndex(uri);
         }
-        targetCookies.remove(cookie);
-        targetCookies.add(cookie);
+        return targetCookies;
+    }
 
-        saveToPersistence(uri, cookie);
+    private void addToHostIndex(URI uri) {
+        String host = uri.getHost();
+        if (host == null) {
+            return;
+        }
+
+        List<URI> uris = urisByHost.get(host);
+        if (uris == null) {
+            uris = new ArrayList<URI>();
+            urisByHost.put(host, uris);
+        }
+
+        int index = 0;
+        while (index < uris.size() && pathLength(uris.get(index)) >= pathLength(uri)) {
+            index++;
+        }
+        uris.add(index, uri);
+    }
+
+    private void removeFromHostIndex(URI uri) {
+        List<URI> uris = urisByHost.get(uri.getHost());
+        if (uris != null) {
+            uris.remove(uri);
+            if (uris.isEmpty()) {
+                urisByHost.remove(uri.getHost());
+            }
+        }
+    }
+
+    private static int pathLength(URI uri) {
+        return uri.getPath() == null ? 0 : uri.getPath().length();
     }
 
     /**
@@ -114,24 +274,26 @@ public class SuperTokensPersistentCookieStore implements CookieStore {
     }
 
     private void saveToPersistence(URI uri, HttpCookie cookie) {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-
-        editor.putString(uri.toString() + SP_KEY_DELIMITER + cookie.getName(),
+        pendingWrites.put(uri.toString() + SP_KEY_DELIMITER + cookie.getName(),
                 new SuperTokensSerializableHttpCookie().encode(cookie));
 
-        editor.apply();
+        scheduleWrite();
     }
 
     @Override
     public synchronized List<HttpCookie> get(URI uri) {
+        awaitLoaded();
+        evictExpiredCookies();
         return getValidCookies(uri);
     }
 
     @Override
     public synchronized List<HttpCookie> getCookies() {
+        awaitLoaded();
+        evictExpiredCookies();
         List<HttpCookie> allValidCookies = new ArrayList<HttpCookie>();
-        for (URI storedUri : allCookies.keySet()) {
-            allValidCookies.addAll(getValidCookies(storedUri));
+        for (URI storedUri : new ArrayList<URI>(allCookies.keySet())) {
+            addValidCookies(storedUri, allValidCookies);
         }
 
         return allValidCookies;
@@ -139,38 +301,137 @@ public class SuperTokensPersistentCookieStore implements CookieStore {
 
     private List<HttpCookie> getValidCookies(URI uri) {
         List<HttpCookie> targetCookies = new ArrayList<HttpCookie>();
-        // If the stored URI does not have a path then it must match any URI in
-        // the same domain
-        for (URI storedUri : allCookies.keySet()) {
-            // Check ith the domains match according to RFC 6265
-            if (checkDomainsMatch(storedUri.getHost(), uri.getHost())) {
-                // Check if the paths match according to RFC 6265
-                if (checkPathsMatch(storedUri.getPath(), uri.getPath())) {
-                    Set<HttpCookie> allCookiesSet = allCookies.get(storedUri);
-                    if ( allCookiesSet != null ) {
-                        targetCookies.addAll(allCookiesSet);
+        String host = uri.getHost();
+        if (host == null) {
+            return targetCookies;
+        }
+
+        // Only the URIs of the host and its parent domains domain-match it according to RFC 6265 (quoted below), so
+        // instead of checking every stored URI the host is looked up, then each parent domain
+        String domain = host;
+        while (true) {
+            List<URI> storedUris = urisByHost.get(domain);
+            if (storedUris != null) {
+                for (URI storedUri : new ArrayList<URI>(storedUris)) {
+                    // Check if the paths match according to RFC 6265
+                    if (checkPathsMatch(storedUri.getPath(), uri.getPath())) {
+                        addValidCookies(storedUri, targetCookies);
                     }
                 }
             }
+
+            int dot = domain.indexOf('.');
+            if (dot < 0) {
+                break;
+            }
+            domain = domain.substring(dot + 1);
+        }
+
+        return targetCookies;
+    }
+
+    // Adds the cookies stored for the URI to targetCookies, expired cookies are removed instead
+    private void addValidCookies(URI storedUri, List<HttpCookie> targetCookies) {
+        Set<HttpCookie> storedCookies = allCookies.get(storedUri);
+        if (storedCookies == null) {
+            return;
+        }
+
+        List<HttpCookie> cookiesToRemoveFromPersistence = null;
+        for (Iterator<HttpCookie> it = storedCookies.iterator(); it.hasNext(); ) {
+            HttpCookie currentCookie = it.next();
+            if (currentCookie != null && currentCookie.hasExpired()) {
+                if (cookiesToRemoveFromPersistence == null) {
+                    cookiesToRemoveFromPersistence = new ArrayList<HttpCookie>();
+                }
+                cookiesToRemoveFromPersistence.add(currentCookie);
+                it.remove();
+                forgetExpiry(currentCookie);
+            } else {
+                targetCookies.add(currentCookie);
+            }
         }
 
-        // Check it there are expired cookies and remove them
-        if (!targetCookies.isEmpty()) {
-            List<HttpCookie> cookiesToRemoveFromPersistence = new ArrayList<HttpCookie>();
-            for (Iterator<HttpCookie> it = targetCookies.iterator(); it
-                    .hasNext(); ) {
-                HttpCookie currentCookie = it.next();
-                if (currentCookie != null && currentCookie.hasExpired()) {
-                    cookiesToRemoveFromPersistence.add(currentCookie);
-                    it.remove();
+        if (cookiesToRemoveFromPersistence != null) {
+            removeFromPersistence(storedUri, cookiesToRemoveFromPersistence);
+            removeIfEmpty(storedUri, storedCookies);
+        }
+    }
+
+    private void removeIfEmpty(URI storedUri, Set<HttpCookie> storedCookies) {
+        if (storedCookies.isEmpty()) {
+            allCookies.remove(storedUri);
+            removeFromHostIndex(storedUri);
+        }
+    }
+
+    // Returns the stored instance of the cookie, HttpCookie instances are equal if they have the same name, domain and path
+    @Nullable
+    private static HttpCookie findStoredCookie(Set<HttpCookie> storedCookies, HttpCookie cookie) {
+        for (HttpCookie storedCookie : storedCookies) {
+            if (storedCookie.equals(cookie)) {
+                return storedCookie;
+            }
+        }
+        return null;
+    }
+
+    // Has to be called right after the cookie is received or loaded, since its max age counts from its creation
+    private void trackExpiry(URI uri, HttpCookie cookie) {
+        long maxAge = cookie.getMaxAge();
+        long now = System.currentTimeMillis();
+        // Cookies without a max age last for the session, and a max age this large never expires
+        if (maxAge < 0 || maxAge > (Long.MAX_VALUE - now) / 1000) {
+            return;
+        }
+
+        CookieExpiry expiry = new CookieExpiry(uri, cookie, now + maxAge * 1000);
+        expiryQueue.add(expiry);
+        expiryByCookie.put(cookie, expiry);
+    }
+
+    // Removing from the middle of the queue is linear, so the entry is only marked and skipped when it reaches the
+    // head. The queue is rebuilt once most of it is marked, which keeps it proportional to the stored cookies.
+    private void forgetExpiry(HttpCookie cookie) {
+        CookieExpiry expiry = expiryByCookie.remove(cookie);
+        if (expiry == null) {
+            return;
+        }
+
+        expiry.isRemoved = true;
+        removedExpiries++;
+
+        if (removedExpiries > expiryQueue.size() / 2) {
+            List<CookieExpiry> remaining = new ArrayList<CookieExpiry>(expiryQueue.size() - removedExpiries);
+            for (CookieExpiry queued : expiryQueue) {
+                if (!queued.isRemoved) {
+                    remaining.add(queued);
                 }
             }
+            expiryQueue.clear();
+            expiryQueue.addAll(remaining);
+            removedExpiries = 0;
+        }
+    }
 
-            if (!cookiesToRemoveFromPersistence.isEmpty()) {
-                removeFromPersistence(uri, cookiesToRemoveFromPersistence);
+    // Removes the cookies that have expired since the last call, this only looks at the head of the queue unless
+    // there is something to remove. The removals are written with the next batched write.
+    private void evictExpiredCookies() {
+        long now = System.currentTimeMillis();
+        while (!expiryQueue.isEmpty() && expiryQueue.peek().expiresAt <= now) {
+            CookieExpiry expiry = expiryQueue.poll();
+            if (expiry.isRemoved) {
+                removedExpiries--;
+                continue;
+            }
+
+            expiryByCookie.remove(expiry.cookie);
+            Set<HttpCookie> storedCookies = allCookies.get(expiry.uri);
+            if (storedCookies != null && storedCookies.remove(expiry.cookie)) {
+                removeFromPersistence(expiry.uri, expiry.cookie);
+                removeIfEmpty(expiry.uri, storedCookies);
             }
         }
-        return targetCookies;
     }
 
    /* http://tools.ietf.org/html/rfc6265#section-5.1.3
@@ -185,10 +446,6 @@ public class SuperTokensPersistentCookieStore implements CookieStore {
            domain string is a %x2E (".") character.
         *  The string is a host name (i.e., not an IP address). */
 
-    private boolean checkDomainsMatch(String cookieHost, String requestHost) {
-        return requestHost.equals(cookieHost) || requestHost.endsWith("." + cookieHost);
-    }
-
     /*  http://tools.ietf.org/html/rfc6265#section-5.1.4
         A request-path path-matches a given cookie-path if at least one of
         the following conditions holds:
@@ -206,47 +463,132 @@ public class SuperTokensPersistentCookieStore implements CookieStore {
     }
 
     private void removeFromPersistence(URI uri, List<HttpCookie> cookiesToRemove) {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
         for (HttpCookie cookieToRemove : cookiesToRemove) {
-            editor.remove(uri.toString() + SP_KEY_DELIMITER
-                    + cookieToRemove.getName());
+            pendingWrites.put(uri.toString() + SP_KEY_DELIMITER
+                    + cookieToRemove.getName(), null);
         }
-        editor.apply();
+        scheduleWrite();
     }
 
     @Override
     public synchronized List<URI> getURIs() {
+        awaitLoaded();
+        evictExpiredCookies();
         return new ArrayList<URI>(allCookies.keySet());
     }
 
     @Override
     public synchronized boolean remove(URI uri, HttpCookie cookie) {
+        awaitLoaded();
+        evictExpiredCookies();
         Set<HttpCookie> targetCookies = allCookies.get(uri);
-        boolean cookieRemoved = targetCookies != null && targetCookies
-                .remove(cookie);
+        HttpCookie storedCookie = targetCookies == null ? null : findStoredCookie(targetCookies, cookie);
+        boolean cookieRemoved = storedCookie != null && targetCookies
+                .remove(storedCookie);
         if (cookieRemoved) {
+            forgetExpiry(storedCookie);
             removeFromPersistence(uri, cookie);
+            removeIfEmpty(uri, targetCookies);
         }
         return cookieRemoved;
 
     }
 
     private void removeFromPersistence(URI uri, HttpCookie cookieToRemove) {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.remove(uri.toString() + SP_KEY_DELIMITER
-                + cookieToRemove.getName());
-        editor.apply();
+        pendingWrites.put(uri.toString() + SP_KEY_DELIMITER
+                + cookieToRemove.getName(), null);
+        scheduleWrite();
     }
 
     @Override
     public synchronized boolean removeAll() {
+        awaitLoaded();
         allCookies.clear();
+        urisByHost.clear();
+        expiryQueue.clear();
+        expiryByCookie.clear();
+        removedExpiries = 0;
         removeAllFromPersistence();
         return true;
     }
 
     private void removeAllFromPersistence() {
-        sharedPreferences.edit().clear().apply();
+        // Anything pending is cleared as well, SharedPreferences applies clear() before the other changes
+        pendingWrites.clear();
+        isClearPending = true;
+        scheduleWrite();
+    }
+
+    /**
+     * Writes any changes that have not been written yet and waits until they are on disk. Changes are otherwise
+     * written shortly after they are made, this is only needed before the process may be stopped.
+     */
+    public void flush() {
+        awaitLoaded();
+        writePendingChanges(true);
     }
 
+    // Has to be called with the store's lock held
+    private void scheduleWrite() {
+        if (isWriteScheduled) {
+            return;
+        }
+
+        isWriteScheduled = true;
+        try {
+            getWriteExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    writePendingChanges(false);
+                }
+            }, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // The executor rejected the task, write the changes right away
+            writePendingChanges(false);
+        }
+    }
+
+    // The changes are applied while holding the lock so that two writes cannot reach SharedPreferences out of order
+    private synchronized void writePendingChanges(boolean waitForDisk) {
+        isWriteScheduled = false;
+        if (!isClearPending && pendingWrites.isEmpty()) {
+            return;
+        }
+
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        if (isClearPending) {
+            editor.clear();
+        }
+        for (Map.Entry<String, String> entry : pendingWrites.entrySet()) {
+            if (entry.getValue() == null) {
+                editor.remove(entry.getKey());
+            } else {
+                editor.putString(entry.getKey(), entry.getValue());
+            }
+        }
+
+        pendingWrites.clear();
+        isClearPending = false;
+
+        if (waitForDisk) {
+            editor.commit();
+        } else {
+            editor.apply();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getWriteExecutor() {
+        if (writeExecutor == null) {
+            writeExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "supertokens-cookie-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return writeExecutor;
+    }
 }
@@ -16,12 +16,14 @@
 
 package com.supertokens.session;
 
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+
 import java.io.*;
 import java.lang.reflect.Field;
 import java.net.HttpCookie;
 
-// TODO: Nemi, what is the need for this file?
-
 @SuppressWarnings("CatchMayIgnoreException")
 class SuperTokensSerializableHttpCookie implements Serializable {
     private static final String TAG = SuperTokensSerializableHttpCookie.class
@@ -31,29 +33,132 @@ class SuperTokensSerializableHttpCookie implements Serializable {
 
     private transient HttpCookie cookie;
 
-    // Workaround httpOnly: The httpOnly attribute is not accessible so when we
-    // serialize and deserialize the cookie it not preserve the same value. We
-    // need to access it using reflection
-    private Field fieldHttpOnly;
-
     SuperTokensSerializableHttpCookie() {
     }
 
+    /*
+     * Cookies are encoded as FORMAT_PREFIX followed by the Base64 of:
+     *
+     * name, value, comment, commentURL, domain, path, portlist: each an int byte length (-1 for null) and UTF-8 bytes
+     * version: int
+     * expiresAt: long, the absolute expiry in milliseconds or -1 if the cookie expires with the session
+     * flags: byte, FLAG_SECURE | FLAG_DISCARD | FLAG_HTTP_ONLY
+     *
+     * Cookies stored before this format were Java serialised and hex encoded, they can still be decoded and
+     * isLegacyEncoding tells the store which entries to write again in the new format.
+     */
+    private static final String FORMAT_PREFIX = "v2:";
+    private static final int FLAG_SECURE = 1;
+    private static final int FLAG_DISCARD = 1 << 1;
+    private static final int FLAG_HTTP_ONLY = 1 << 2;
+
+    @Nullable
     String encode(HttpCookie cookie) {
         this.cookie = cookie;
 
+        // The cookie is encoded when it is added to the store, right after it was received, so its max age counts
+        // from now. It is stored as an absolute time so that it does not start again when the cookie is loaded.
+        long maxAge = cookie.getMaxAge();
+        long expiresAt = maxAge < 0 ? -1 : System.currentTimeMillis() + maxAge * 1000;
+
+        int flags = (cookie.getSecure() ? FLAG_SECURE : 0)
+                | (cookie.getDiscard() ? FLAG_DISCARD : 0)
+                | (getHttpOnly() ? FLAG_HTTP_ONLY : 0);
+
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         try {
-            ObjectOutputStream outputStream = new ObjectOutputStream(os);
-            outputStream.writeObject(this);
+            DataOutputStream out = new DataOutputStream(os);
+            writeString(out, cookie.getName());
+            writeString(out, cookie.getValue());
+            writeString(out, cookie.getComment());
+            writeString(out, cookie.getCommentURL());
+            writeString(out, cookie.getDomain());
+            writeString(out, cookie.getPath());
+            writeString(out, cookie.getPortlist());
+            out.writeInt(cookie.getVersion());
+            out.writeLong(expiresAt);
+            out.writeByte(flags);
+            out.flush();
         } catch (IOException e) {
             return null;
         }
 
-        return byteArrayToHexString(os.toByteArray());
+        return FORMAT_PREFIX + Base64.encodeToString(os.toByteArray(), Base64.NO_WRAP);
     }
 
+    @Nullable
     HttpCookie decode(String encodedCookie) {
+        if (isLegacyEncoding(encodedCookie)) {
+            return decodeLegacy(encodedCookie);
+        }
+
+        try {
+            byte[] bytes = Base64.decode(encodedCookie.substring(FORMAT_PREFIX.length()), Base64.NO_WRAP);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+            String name = readString(in);
+            String value = readString(in);
+            if (name == null) {
+                return null;
+            }
+
+            cookie = new HttpCookie(name, value);
+            cookie.setComment(readString(in));
+            cookie.setCommentURL(readString(in));
+            cookie.setDomain(readString(in));
+            cookie.setPath(readString(in));
+            cookie.setPortlist(readString(in));
+            cookie.setVersion(in.readInt());
+
+            long expiresAt = in.readLong();
+            // An expiry in the past results in a max age of 0, which makes the store remove the cookie
+            cookie.setMaxAge(expiresAt < 0 ? -1 : Math.max(0, (expiresAt - System.currentTimeMillis()) / 1000));
+
+            int flags = in.readByte();
+            cookie.setSecure((flags & FLAG_SECURE) != 0);
+            cookie.setDiscard((flags & FLAG_DISCARD) != 0);
+            setHttpOnly((flags & FLAG_HTTP_ONLY) != 0);
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            // Invalid Base64 or an invalid cookie name
+            return null;
+        }
+
+        return cookie;
+    }
+
+    static boolean isLegacyEncoding(String encodedCookie) {
+        return !encodedCookie.startsWith(FORMAT_PREFIX);
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new EOFException();
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private HttpCookie decodeLegacy(String encodedCookie) {
         byte[] bytes = hexStringToByteArray(encodedCookie);
         ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(
                 bytes);
@@ -72,8 +177,7 @@ class SuperTokensSerializableHttpCookie implements Serializable {
     // Workaround httpOnly (getter)
     private boolean getHttpOnly() {
         try {
-            initFieldHttpOnly();
-            return (boolean) fieldHttpOnly.get(cookie);
+            return (boolean) getFieldHttpOnly().get(cookie);
         } catch (Exception e) {
         }
         return false;
@@ -82,35 +186,24 @@ class SuperTokensSerializableHttpCookie implements Serializable {
     // Workaround httpOnly (setter)
     private void setHttpOnly(boolean httpOnly) {
         try {
-            initFieldHttpOnly();
-            fieldHttpOnly.set(cookie, httpOnly);
+            getFieldHttpOnly().set(cookie, httpOnly);
         } catch (Exception e) {
             // NoSuchFieldException || IllegalAccessException ||
             // IllegalArgumentException
         }
     }
 
+    // Workaround httpOnly: The httpOnly attribute is not accessible so when we
+    // serialize and deserialize the cookie it not preserve the same value. We
+    // need to access it using reflection
     @SuppressWarnings("JavaReflectionMemberAccess")
-    private void initFieldHttpOnly() throws NoSuchFieldException {
-        fieldHttpOnly = cookie.getClass().getDeclaredField("httpOnly");
+    private Field getFieldHttpOnly() throws NoSuchFieldException {
+        Field fieldHttpOnly = cookie.getClass().getDeclaredField("httpOnly");
         fieldHttpOnly.setAccessible(true);
+        return fieldHttpOnly;
     }
 
-    private void writeObject(ObjectOutputStream out) throws IOException {
-        out.writeObject(cookie.getName());
-        out.writeObject(cookie.getValue());
-        out.writeObject(cookie.getComment());
-        out.writeObject(cookie.getCommentURL());
-        out.writeObject(cookie.getDomain());
-        out.writeLong(cookie.getMaxAge());
-        out.writeObject(cookie.getPath());
-        out.writeObject(cookie.getPortlist());
-        out.writeInt(cookie.getVersion());
-        out.writeBoolean(cookie.getSecure());
-        out.writeBoolean(cookie.getDiscard());
-        out.writeBoolean(getHttpOnly());
-    }
-
+    // Only used to decode cookies stored in the legacy format
     private void readObject(ObjectInputStream in) throws IOException,
             ClassNotFoundException {
         String name = (String) in.readObject();
@@ -128,26 +221,6 @@ class SuperTokensSerializableHttpCookie implements Serializable {
         setHttpOnly(in.readBoolean());
     }
 
-    /**
-     * Using some super basic byte array &lt;-&gt; hex conversions so we don't
-     * have to rely on any large Base64 libraries. Can be overridden if you
-     * like!
-     *
-     * @param bytes byte array to be converted
-     * @return string containing hex values
-     */
-    private String byteArrayToHexString(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte element : bytes) {
-            int v = element & 0xff;
-            if (v < 16) {
-                sb.append('0');
-            }
-            sb.append(Integer.toHexString(v));
-        }
-        return sb.toString();
-    }
-
     /**
      * Converts hex values from strings to byte array
      *
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.supertokens.session;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Process wide, write-through cache of the session state kept in storage.
+ *
+ * Every intercepted request needs the access and refresh tokens (and the last access token update time),
+ * so instead of going to storage each time we keep an immutable snapshot of them in a volatile field.
+ * Readers only ever do a volatile read, writers go through {@link SessionUpdate} which updates storage
+ * and then swaps the snapshot while holding {@link #lock} so that concurrent writers do not lose each
+ * other's updates.
+ */
+class TokenCache {
+    private static final Object lock = new Object();
+    private static volatile Tokens tokens;
+    @Nullable
+    private static volatile PendingWrites pendingWrites;
+
+    /**
+     * Storage writes that should be made in the same transaction as the session tokens, registered by
+     * {@link SuperTokensCookieJar}. The cookie jar depends on OkHttp, which apps do not have to include, so TokenCache
+     * only knows about it through this interface.
+     */
+    interface PendingWrites {
+        // Records the pending writes for storage in editor, returns false if there are none
+        boolean addTo(SessionStorage storage, SessionStorage.Editor editor);
+    }
+
+    static class Tokens {
+        @Nullable
+        final String accessToken;
+        @Nullable
+        final String refreshToken;
+        @Nullable
+        final String lastAccessTokenUpdate;
+        @Nullable
+        final String frontToken;
+        @Nullable
+        final String antiCSRF;
+
+        Tokens(
+                @Nullable String accessToken,
+                @Nullable String refreshToken,
+                @Nullable String lastAccessTokenUpdate,
+                @Nullable String frontToken,
+                @Nullable String antiCSRF) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+            this.lastAccessTokenUpdate = lastAccessTokenUpdate;
+            this.frontToken = frontToken;
+            this.antiCSRF = antiCSRF;
+        }
+
+        @Nullable
+        String getToken(Utils.TokenType tokenType) {
+            return tokenType == Utils.TokenType.ACCESS ? accessToken : refreshToken;
+        }
+    }
+
+    static Tokens get(Context context) {
+        Tokens current = tokens;
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (lock) {
+            if (tokens == null) {
+                tokens = readFromStorage(context);
+            }
+            return tokens;
+        }
+    }
+
+    // Called from SuperTokens.init so that the first intercepted request does not pay for reading storage
+    static void load(Context context) {
+        synchronized (lock) {
+            tokens = readFromStorage(context);
+        }
+    }
+
+    // Applies the update to storage in a single transaction and swaps the snapshot, returns the previous snapshot
+    static Tokens commit(Context context, SessionUpdate update) {
+        synchronized (lock) {
+            Tokens previous = get(context);
+            SessionStorage storage = Utils.getSessionStorage(context);
+            SessionStorage.Editor editor = storage.edit();
+            Tokens next = update.applyTo(previous, editor);
+            PendingWrites currentPendingWrites = pendingWrites;
+            if (currentPendingWrites != null) {
+                currentPendingWrites.addTo(storage, editor);
+            }
+            editor.apply();
+            tokens = next;
+            return previous;
+        }
+    }
+
+    // Writes the pending writes on their own, for responses that did not change the session
+    static void commitPendingWrites(Context context) {
+        PendingWrites currentPendingWrites = pendingWrites;
+        if (currentPendingWrites == null) {
+            return;
+        }
+
+        synchronized (lock) {
+            SessionStorage storage = Utils.getSessionStorage(context);
+            SessionStorage.Editor editor = storage.edit();
+            if (currentPendingWrites.addTo(storage, editor)) {
+                editor.apply();
+            }
+        }
+    }
+
+    static void setPendingWrites(PendingWrites pendingWrites) {
+        TokenCache.pendingWrites = pendingWrites;
+    }
+
+    static void clear() {
+        synchronized (lock) {
+            tokens = null;
+        }
+    }
+
+    private static Tokens readFromStorage(Context context) {
+        SessionStorage storage = Utils.getSessionStorage(context);
+        return new Tokens(
+                storage.getString(Constants.STORAGE_ITEM_PREFIX + Utils.getStorageName(Utils.TokenType.ACCESS)),
+                storage.getString(Constants.STORAGE_ITEM_PREFIX + Utils.getStorageName(Utils.TokenType.REFRESH)),
+                storage.getString(Constants.STORAGE_ITEM_PREFIX + Constants.LAST_ACCESS_TOKEN_UPDATE_PREFS_KEY),
+                storage.getString(Constants.FRONT_TOKEN_PREFS_KEY),
+                storage.getString(Constants.CSRF_TOKEN_PREFS_KEY)
+        );
+    }
+}
@@ -17,7 +17,6 @@
 package com.supertokens.session;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
 import androidx.annotation.Nullable;
 
@@ -34,6 +33,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import okhttp3.Response;
 
@@ -72,10 +72,22 @@ public class Utils {
         LocalSessionStateStatus status;
         @Nullable
         String lastAccessTokenUpdate;
+        // The number of refreshes when the state was read, see isOutdatedByRefresh
+        final int refreshCount;
 
         LocalSessionState(LocalSessionStateStatus status, @Nullable String lastAccessTokenUpdate) {
             this.status = status;
             this.lastAccessTokenUpdate = lastAccessTokenUpdate;
+            this.refreshCount = RefreshCoordinator.getRefreshCount();
+        }
+
+        /**
+         * True if the session was refreshed since this state was read. Requests do not hold the refresh API lock
+         * while they are in flight, so the tokens in the response to a request sent with this state would replace
+         * the refreshed ones. Has to be called with the read lock of the refresh API lock held.
+         */
+        boolean isOutdatedByRefresh() {
+            return RefreshCoordinator.getRefreshCount() != refreshCount;
         }
     }
 
@@ -95,6 +107,34 @@ public class Utils {
         CustomHeaderProvider customHeaderMapper;
         EventHandler eventHandler;
         String tokenTransferMethod;
+        SessionStorage sessionStorage;
+
+        /**
+         * If set, the session is refreshed in the background this many milliseconds before the access token
+         * expires. See ProactiveRefreshScheduler.
+         */
+        Long proactiveRefreshMarginMillis;
+
+        /**
+         * If true, requests made when the access token has already expired (according to the front token) refresh
+         * the session before they are sent, instead of being sent and failing with the session expired status code.
+         */
+        boolean refreshBeforeRequestIfExpired;
+
+        /**
+         * The maximum number of bytes of a session expired response body that SuperTokensInterceptor buffers in
+         * memory while it refreshes the session. Larger bodies are truncated if the response is returned.
+         */
+        long maxUnauthorisedResponseBodySize;
+
+        // The executor that session events are delivered on, null to use a single background thread
+        Executor eventExecutor;
+
+        // The executor that the asynchronous APIs run on, null to use a pool of background threads
+        Executor asyncExecutor;
+
+        // If false, the SDK does not print anything to stderr. See Logger.
+        boolean loggingEnabled;
 
         // TODO NEMI: Handle pre API and on handle event
         public NormalisedInputType(
@@ -105,7 +145,14 @@ public class Utils {
                 String sessionTokenBackendDomain,
                 String tokenTransferMethod,
                 CustomHeaderProvider customHeaderMapper,
-                EventHandler eventHandler) {
+                EventHandler eventHandler,
+                SessionStorage sessionStorage,
+                Long proactiveRefreshMarginMillis,
+                boolean refreshBeforeRequestIfExpired,
+                long maxUnauthorisedResponseBodySize,
+                Executor eventExecutor,
+                Executor asyncExecutor,
+                boolean loggingEnabled) {
             this.apiDomain = apiDomain;
             this.apiBasePath = apiBasePath;
             this.sessionExpiredStatusCode = sessionExpiredStatusCode;
@@ -114,6 +161,13 @@ public class Utils {
             this.customHeaderMapper = customHeaderMapper;
             this.eventHandler = eventHandler;
             this.tokenTransferMethod = tokenTransferMethod;
+            this.sessionStorage = sessionStorage;
+            this.proactiveRefreshMarginMillis = proactiveRefreshMarginMillis;
+            this.refreshBeforeRequestIfExpired = refreshBeforeRequestIfExpired;
+            this.maxUnauthorisedResponseBodySize = maxUnauthorisedResponseBodySize;
+            this.eventExecutor = eventExecutor;
+            this.asyncExecutor = asyncExecutor;
+            this.loggingEnabled = loggingEnabled;
         }
 
         static String sessionScopeHelper(String sessionScope) throws MalformedURLException {
@@ -144,7 +198,7 @@ public class Utils {
             return normaliseSessionScopeOrThrowError(sessionScope);
         }
 
-        private static String normaliseSessionScopeOrThrowError(String sessionScope) throws MalformedURLException {
+        static String normaliseSessionScopeOrThrowError(String sessionScope) throws MalformedURLException {
             sessionScope = sessionScope.trim().toLowerCase();
             String noDotNormalised = sessionScopeHelper(sessionScope);
 
@@ -167,7 +221,14 @@ public class Utils {
                 @Nullable String sessionTokenBackendDomain,
                 @Nullable String tokenTransferMethod,
                 @Nullable CustomHeaderProvider customHeaderProvider,
-                @Nullable EventHandler eventHandler) throws MalformedURLException {
+                @Nullable EventHandler eventHandler,
+                @Nullable SessionStorage sessionStorage,
+                @Nullable Long proactiveRefreshMarginMillis,
+                @Nullable Boolean refreshBeforeRequestIfExpired,
+                @Nullable Long maxUnauthorisedResponseBodySize,
+                @Nullable Executor eventExecutor,
+                @Nullable Executor asyncExecutor,
+                @Nullable Boolean loggingEnabled) throws MalformedURLException {
             String _apiDomain = new NormalisedURLDomain(apiDomain).getAsStringDangerous();
             String _apiBasePath = new NormalisedURLPath("/auth").getAsStringDangerous();
 
@@ -206,40 +267,72 @@ public class Utils {
                 _tokenTransferMethod = tokenTransferMethod;
             }
 
+            if (proactiveRefreshMarginMillis != null && proactiveRefreshMarginMillis < 0) {
+                throw new IllegalArgumentException("proactiveRefreshMarginMillis cannot be negative");
+            }
+
+            boolean _refreshBeforeRequestIfExpired = false;
+            if (refreshBeforeRequestIfExpired != null) {
+                _refreshBeforeRequestIfExpired = refreshBeforeRequestIfExpired;
+            }
+
+            long _maxUnauthorisedResponseBodySize = Long.MAX_VALUE;
+            if (maxUnauthorisedResponseBodySize != null) {
+                if (maxUnauthorisedResponseBodySize < 0) {
+                    throw new IllegalArgumentException("maxUnauthorisedResponseBodySize cannot be negative");
+                }
+                _maxUnauthorisedResponseBodySize = maxUnauthorisedResponseBodySize;
+            }
+
+            boolean _loggingEnabled = true;
+            if (loggingEnabled != null) {
+                _loggingEnabled = loggingEnabled;
+            }
+
             return new NormalisedInputType(_apiDomain, _apiBasePath, _sessionExpiredStatusCode, _maxRetryAttemptsForSessionRefresh,
-                    _sessionTokenBackendDomain, _tokenTransferMethod, _customHeaderProvider, _eventHandler);
+                    _sessionTokenBackendDomain, _tokenTransferMethod, _customHeaderProvider, _eventHandler, sessionStorage,
+                    proactiveRefreshMarginMillis, _refreshBeforeRequestIfExpired, _maxUnauthorisedResponseBodySize, eventExecutor,
+                    asyncExecutor, _loggingEnabled);
         }
     }
 
+    /**
+     * @deprecated the SDK does not use this anymore. Writes go through the SDK's in-memory token cache so that
+     * intercepted requests see the new value.
+     */
+    @Deprecated
     public static void storeInStorage(String name, String value, Context context) {
-        String storageKey = "st-storage-item-" + name;
-        SharedPreferences sharedPreferences = getSharedPreferences(context);
-
-        if (value.isEmpty()) {
-            SharedPreferences.Editor editor = sharedPreferences.edit();
-            editor.remove(storageKey);
-            editor.apply();
-            return;
-        }
-
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putString(storageKey, value)
-                .apply();
+        new SessionUpdate().setStorageItem(name, value).commit(context);
     }
 
     public static void saveLastAccessTokenUpdate(Context context) {
-        String now = "" + System.currentTimeMillis();
-
-        storeInStorage(Constants.LAST_ACCESS_TOKEN_UPDATE_PREFS_KEY, now, context);
-        storeInStorage("sIRTFrontend", "", context);
+        new SessionUpdate().updateLastAccessTokenUpdate().commit(context);
     }
 
+    /**
+     * @deprecated the SDK does not use this anymore. Tokens are read from the SDK's in-memory token cache.
+     */
+    @Deprecated
+    @Nullable
     public static String getFromStorage(String name, Context context) {
-        return getSharedPreferences(context).getString("st-storage-item-" + name, null);
+        TokenCache.Tokens tokens = TokenCache.get(context);
+        if (name.equals(getStorageName(TokenType.ACCESS))) {
+            return tokens.accessToken;
+        }
+
+        if (name.equals(getStorageName(TokenType.REFRESH))) {
+            return tokens.refreshToken;
+        }
+
+        if (name.equals(Constants.LAST_ACCESS_TOKEN_UPDATE_PREFS_KEY)) {
+            return tokens.lastAccessTokenUpdate;
+        }
+
+        return getSessionStorage(context).getString(Constants.STORAGE_ITEM_PREFIX + name);
     }
 
     public static LocalSessionState getLocalSessionState(Context context) {
-        String lastAccessTokenUpdate = getFromStorage(Constants.LAST_ACCESS_TOKEN_UPDATE_PREFS_KEY, context);
+        String lastAccessTokenUpdate = TokenCache.get(context).lastAccessTokenUpdate;
         boolean frontTokenExists = FrontToken.doesTokenExist(context);
 
         if (frontTokenExists && lastAccessTokenUpdate != null) {
@@ -258,65 +351,29 @@ public class Utils {
     }
 
     public static void setToken(TokenType tokenType, String value, Context context) {
-        String name = getStorageName(tokenType);
-        storeInStorage(name, value, context);
+        new SessionUpdate().setToken(tokenType, value).commit(context);
     }
 
     public static void saveTokenFromHeaders(SuperTokensCustomHttpURLConnection connection, Context context) {
-        String refreshToken = connection.getHeaderField(Constants.REFRESH_TOKEN_HEADER_KEY);
-
-        if (refreshToken != null) {
-            setToken(TokenType.REFRESH, refreshToken, context);
-        }
-
-        String accessToken = connection.getHeaderField(Constants.ACCESS_TOKEN_HEADER_KEY);
-
-        if (accessToken != null) {
-            setToken(TokenType.ACCESS, accessToken, context);
-        }
-
-        String frontToken = connection.getHeaderField(Constants.FRONT_TOKEN_HEADER_KEY);
-
-        if (frontToken != null) {
-            FrontToken.setItem(context, frontToken);
-        }
-
-        String antiCSRF = connection.getHeaderField(Constants.CSRF_HEADER_KEY);
-        if (antiCSRF != null) {
-            LocalSessionState localSessionState = getLocalSessionState(context);
-            AntiCSRF.setToken(context, localSessionState.lastAccessTokenUpdate, antiCSRF);
-        }
+        SessionUpdate.fromHeaders(
+                connection.getHeaderField(Constants.REFRESH_TOKEN_HEADER_KEY),
+                connection.getHeaderField(Constants.ACCESS_TOKEN_HEADER_KEY),
+                connection.getHeaderField(Constants.FRONT_TOKEN_HEADER_KEY),
+                connection.getHeaderField(Constants.CSRF_HEADER_KEY)
+        ).commit(context);
     }
 
     public static void saveTokenFromHeaders(Response response, Context context) {
-        String refreshToken = response.header(Constants.REFRESH_TOKEN_HEADER_KEY);
-
-        if (refreshToken != null) {
-            setToken(TokenType.REFRESH, refreshToken, context);
-        }
-
-        String accessToken = response.header(Constants.ACCESS_TOKEN_HEADER_KEY);
-
-        if (accessToken != null) {
-            setToken(TokenType.ACCESS, accessToken, context);
-        }
-
-        String frontToken = response.header(Constants.FRONT_TOKEN_HEADER_KEY);
-
-        if (frontToken != null) {
-            FrontToken.setItem(context, frontToken);
-        }
-
-        String antiCSRF = response.header(Constants.CSRF_HEADER_KEY);
-        if (antiCSRF != null) {
-            LocalSessionState localSessionState = getLocalSessionState(context);
-            AntiCSRF.setToken(context, localSessionState.lastAccessTokenUpdate, antiCSRF);
-        }
+        SessionUpdate.fromHeaders(
+                response.header(Constants.REFRESH_TOKEN_HEADER_KEY),
+                response.header(Constants.ACCESS_TOKEN_HEADER_KEY),
+                response.header(Constants.FRONT_TOKEN_HEADER_KEY),
+                response.header(Constants.CSRF_HEADER_KEY)
+        ).commit(context);
     }
 
     public static String getTokenForHeaderAuth(TokenType tokenType, Context context) {
-        String name = getStorageName(tokenType);
-        return getFromStorage(name, context);
+        return TokenCache.get(context).getToken(tokenType);
     }
 
     // Checks if a key exists in a map regardless of case
@@ -335,8 +392,11 @@ public class Utils {
         // users to continue these sessions.
         // The new session preference should be applied at the start of the next
         // session, if the backend allows it.
-        String accessToken = getTokenForHeaderAuth(TokenType.ACCESS, context);
-        String refreshToken = getTokenForHeaderAuth(TokenType.REFRESH, context);
+        // Both tokens are read from the same snapshot so that we never pair an access token with
+        // a refresh token from a different session
+        TokenCache.Tokens tokens = TokenCache.get(context);
+        String accessToken = tokens.accessToken;
+        String refreshToken = tokens.refreshToken;
 
         // We don't always need the refresh token because that's only required by the
         // refresh call
@@ -375,13 +435,13 @@ public class Utils {
             // to query an API that returned 401 while the user was not logged in...
             if (!frontTokenExistsAfter) {
                 if (status == SuperTokens.config.sessionExpiredStatusCode) {
-                    SuperTokens.config.eventHandler.handleEvent(EventHandler.EventType.UNAUTHORISED);
+                    EventDispatcher.dispatch(EventHandler.EventType.UNAUTHORISED);
                 } else {
-                    SuperTokens.config.eventHandler.handleEvent(EventHandler.EventType.SIGN_OUT);
+                    EventDispatcher.dispatch(EventHandler.EventType.SIGN_OUT);
                 }
             }
         } else if (frontTokenExistsAfter) {
-            SuperTokens.config.eventHandler.handleEvent(EventHandler.EventType.SESSION_CREATED);
+            EventDispatcher.dispatch(EventHandler.EventType.SESSION_CREATED);
         }
     }
 
@@ -428,44 +488,18 @@ public class Utils {
             @Nullable String cookieDomain) throws MalformedURLException {
         String _toCheckUrl = new NormalisedURLDomain(toCheckUrl).getAsStringDangerous();
         URL url = new URL(_toCheckUrl);
-        String domain = url.getHost();
-
-        boolean apiDomainAndInputDomainMatch = false;
-        if (!apiDomain.equals("")) {
-            String _apiDomain = new NormalisedURLDomain(apiDomain).getAsStringDangerous();
-            URL apiDomainUrlObj = new URL(_apiDomain);
-            apiDomainAndInputDomainMatch = apiDomainUrlObj.getHost().equals(domain);
-        }
-
-        if (cookieDomain == null || apiDomainAndInputDomainMatch) {
-            return apiDomainAndInputDomainMatch;
-        } else {
-            String normalisedCookieDomain = NormalisedInputType.normaliseSessionScopeOrThrowError(cookieDomain);
+        String domain = InterceptionMatcher.stripIPv6Brackets(url.getHost());
 
-            return matchesDomainOrSubdomain(domain, normalisedCookieDomain);
-        }
+        return InterceptionMatcher.create(apiDomain, cookieDomain).shouldDoInterception(domain);
     }
 
-    private static boolean matchesDomainOrSubdomain(String hostname, String str) {
-        String[] parts = hostname.split("\\.");
-
-        for (int i = 0; i < parts.length; i++) {
-            StringBuilder subdomainCandidate = new StringBuilder();
-            for (int j = i; j < parts.length; j++) {
-                subdomainCandidate.append(parts[j]);
-                if (j < parts.length - 1) {
-                    subdomainCandidate.append(".");
-                }
-            }
-            if (subdomainCandidate.toString().equals(str) || ("." + subdomainCandidate.toString()).equals(str)) {
-                return true;
-            }
+    static SessionStorage getSessionStorage(Context context) {
+        // The storage is only configured once init is called, anything that runs before that
+        // uses the default storage
+        if (SuperTokens.config != null && SuperTokens.config.sessionStorage != null) {
+            return SuperTokens.config.sessionStorage;
         }
 
-        return false;
-    }
-
-    static SharedPreferences getSharedPreferences(Context context) {
-        return context.getSharedPreferences(Constants.SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
+        return new SharedPreferencesSessionStorage(context);
     }
 }
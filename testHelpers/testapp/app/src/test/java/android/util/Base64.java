@@ -20,4 +20,8 @@ public class Base64 {
     public static byte[] decode(String str, int flags) {
         return java.util.Base64.getDecoder().decode(str);
     }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return java.util.Base64.getEncoder().encodeToString(input);
+    }
 }
@@ -266,6 +266,12 @@ public class ConfigTests {
         assert (!shouldDoInterceptionBasedOnUrl("https://google.com:8080", "", "localhost.org"));
         assert (!shouldDoInterceptionBasedOnUrl("https://api.example.com:3000", "", ".a.api.example.com"));
         assert (!shouldDoInterceptionBasedOnUrl("https://sub.api.example.com:3000", "", "localhost"));
+        assert (!shouldDoInterceptionBasedOnUrl("https://notexample.com", "", "example.com"));
+        assert (!shouldDoInterceptionBasedOnUrl("https://notexample.com", "", ".example.com"));
+        assert (!shouldDoInterceptionBasedOnUrl("https://example.com.evil.org", "", "example.com"));
+        assert (!shouldDoInterceptionBasedOnUrl("https://example.com", "", "api.example.com"));
+        assert (shouldDoInterceptionBasedOnUrl("https://API.Example.com", "https://api.example.com", null));
+        assert (shouldDoInterceptionBasedOnUrl("https://Sub.API.example.com", "", ".example.com"));
 
         // errors in input
         try {
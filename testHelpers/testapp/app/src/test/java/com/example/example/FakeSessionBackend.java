@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal in-process backend for tests that do not need the SuperTokens core, it implements login, refresh and
+ * sign out with header based sessions and a protected API that returns a 401 once the access token expires.
+ *
+ * Access tokens are only valid until the expiry sent in the front token, so setting accessTokenValidityMillis to a
+ * negative value creates sessions whose access token has already expired.
+ */
+public class FakeSessionBackend {
+    public static final String USER_ID = "fake-backend-user";
+
+    public volatile long accessTokenValidityMillis = 60 * 1000;
+    public volatile long refreshDelayMillis = 0;
+    public volatile boolean refreshFails = false;
+    public volatile int unauthorisedBodySize = 0;
+    public volatile long slowRequestMillis = 1000;
+    // The access token payload of new sessions, as JSON
+    public volatile String accessTokenPayload = "{}";
+
+    public final AtomicInteger refreshCount = new AtomicInteger();
+    public final AtomicInteger unauthorisedCount = new AtomicInteger();
+    // "METHOD /path" of every request, in the order they were received
+    public final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicInteger tokenVersion = new AtomicInteger();
+    private volatile String accessToken;
+    private volatile String refreshToken;
+    private volatile long accessTokenExpiry;
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleRequest(exchange);
+                } catch (InterruptedException e) {
+                    respond(exchange, 500, "");
+                }
+            }
+        });
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getApiDomain() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public String getCurrentAccessToken() {
+        return accessToken;
+    }
+
+    // Makes the current access token invalid without the client knowing about it
+    public void expireAccessToken() {
+        accessTokenExpiry = 0;
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException, InterruptedException {
+        String path = exchange.getRequestURI().getPath();
+        requests.add(exchange.getRequestMethod() + " " + path);
+        exchange.getRequestBody().close();
+
+        if (path.equals("/login")) {
+            createTokens(exchange);
+            respond(exchange, 200, "{}");
+        } else if (path.equals("/login-cookies")) {
+            long maxAgeSeconds = accessTokenValidityMillis / 1000;
+            exchange.getResponseHeaders().add("Set-Cookie", "sAccessToken=cookie-at; Max-Age=" + maxAgeSeconds + "; Path=/; HttpOnly");
+            exchange.getResponseHeaders().add("Set-Cookie", "sRefreshToken=cookie-rt; Max-Age=" + maxAgeSeconds + "; Path=/auth/session/refresh; HttpOnly");
+            exchange.getResponseHeaders().add("front-token", createFrontToken(System.currentTimeMillis() + accessTokenValidityMillis, accessTokenPayload));
+            respond(exchange, 200, "{}");
+        } else if (path.equals("/auth/session/refresh")) {
+            refreshCount.incrementAndGet();
+            Thread.sleep(refreshDelayMillis);
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (refreshFails || refreshToken == null || !("Bearer " + refreshToken).equals(authorization)) {
+                exchange.getResponseHeaders().add("front-token", "remove");
+                respond(exchange, 401, "{\"message\":\"unauthorised\"}");
+                return;
+            }
+            createTokens(exchange);
+            respond(exchange, 200, "{}");
+        } else if (path.equals("/auth/signout")) {
+            accessToken = null;
+            refreshToken = null;
+            exchange.getResponseHeaders().add("front-token", "remove");
+            exchange.getResponseHeaders().add("st-access-token", "");
+            exchange.getResponseHeaders().add("st-refresh-token", "");
+            respond(exchange, 200, "{\"status\":\"OK\"}");
+        } else if (path.equals("/slow-tokens")) {
+            // Responds with the tokens that were current when the request arrived, like an API that sends the
+            // session tokens with every response
+            String currentAccessToken = accessToken;
+            String currentRefreshToken = refreshToken;
+            long currentAccessTokenExpiry = accessTokenExpiry;
+            Thread.sleep(slowRequestMillis);
+            exchange.getResponseHeaders().add("st-access-token", currentAccessToken);
+            exchange.getResponseHeaders().add("st-refresh-token", currentRefreshToken);
+            exchange.getResponseHeaders().add("front-token", createFrontToken(currentAccessTokenExpiry, accessTokenPayload));
+            respond(exchange, 200, "ok");
+        } else {
+            boolean isAuthorised = isAuthorised(exchange);
+            if (path.equals("/slow")) {
+                Thread.sleep(slowRequestMillis);
+            }
+
+            if (!isAuthorised) {
+                unauthorisedCount.incrementAndGet();
+                StringBuilder body = new StringBuilder();
+                for (int i = 0; i < unauthorisedBodySize; i++) {
+                    body.append('x');
+                }
+                respond(exchange, 401, body.toString());
+                return;
+            }
+            respond(exchange, 200, "ok");
+        }
+    }
+
+    private boolean isAuthorised(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return accessToken != null && ("Bearer " + accessToken).equals(authorization)
+                && accessTokenExpiry > System.currentTimeMillis();
+    }
+
+    private void createTokens(HttpExchange exchange) {
+        int version = tokenVersion.incrementAndGet();
+        accessToken = "at-" + version;
+        refreshToken = "rt-" + version;
+        accessTokenExpiry = System.currentTimeMillis() + accessTokenValidityMillis;
+        exchange.getResponseHeaders().add("st-access-token", accessToken);
+        exchange.getResponseHeaders().add("st-refresh-token", refreshToken);
+        exchange.getResponseHeaders().add("front-token", createFrontToken(accessTokenExpiry, accessTokenPayload));
+    }
+
+    public static String createFrontToken(long accessTokenExpiry) {
+        return createFrontToken(accessTokenExpiry, "{}");
+    }
+
+    public static String createFrontToken(long accessTokenExpiry, String payload) {
+        String json = "{\"uid\":\"" + USER_ID + "\",\"ate\":" + accessTokenExpiry + ",\"up\":" + payload + "}";
+        return Base64.getEncoder().encodeToString(json.getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(bytes);
+        outputStream.close();
+    }
+}
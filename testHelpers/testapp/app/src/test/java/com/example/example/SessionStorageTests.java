@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ * This software is licensed under the Apache License, Version 2.0 (the
+ * "License") as published by the Apache Software Foundation.
+ *
+ * You may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.example.example.android;
+
+import com.supertokens.session.FileSessionStorage;
+import com.supertokens.session.InMemorySessionStorage;
+import com.supertokens.session.SessionStorage;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class SessionStorageTests {
+
+    private void checkStorageBehaviour(SessionStorage storage) {
+        assert (storage.getString("key1") == null);
+
+        storage.edit().putString("key1", "value1").putString("key2", "value2").apply();
+        assert (storage.getString("key1").equals("value1"));
+        assert (storage.getString("key2").equals("value2"));
+
+        // Changes are only visible after apply
+        SessionStorage.Editor editor = storage.edit().remove("key1").putString("key2", "value3");
+        assert (storage.getString("key1").equals("value1"));
+        editor.apply();
+        assert (storage.getString("key1") == null);
+        assert (storage.getString("key2").equals("value3"));
+    }
+
+    private File createEmptyTemporaryFile() throws Exception {
+        File file = File.createTempFile("supertokens-session", ".log");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testInMemorySessionStorage() {
+        checkStorageBehaviour(new InMemorySessionStorage());
+    }
+
+    @Test
+    public void testFileSessionStorage() throws Exception {
+        File file = createEmptyTemporaryFile();
+
+        checkStorageBehaviour(new FileSessionStorage(file, false));
+
+        // The values are read back from the log
+        SessionStorage reopened = new FileSessionStorage(file, false);
+        assert (reopened.getString("key1") == null);
+        assert (reopened.getString("key2").equals("value3"));
+    }
+
+    @Test
+    public void testFileSessionStorageIgnoresIncompleteRecords() throws Exception {
+        File file = createEmptyTemporaryFile();
+
+        FileSessionStorage storage = new FileSessionStorage(file, false);
+        storage.edit().putString("key1", "value1").apply();
+        long lengthAfterFirstRecord = file.length();
+        storage.edit().putString("key1", "value2").putString("key2", "value2").apply();
+
+        // Simulate the process dying in the middle of writing the second record
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() - 3);
+        randomAccessFile.close();
+
+        SessionStorage reopened = new FileSessionStorage(file, false);
+        assert (reopened.getString("key1").equals("value1"));
+        assert (reopened.getString("key2") == null);
+        assert (file.length() == lengthAfterFirstRecord);
+
+        reopened.edit().putString("key2", "value3").apply();
+        assert (new FileSessionStorage(file, false).getString("key2").equals("value3"));
+    }
+
+    @Test
+    public void testFileSessionStorageCompactsLog() throws Exception {
+        File file = createEmptyTemporaryFile();
+
+        FileSessionStorage storage = new FileSessionStorage(file, false);
+        for (int i = 0; i < 5000; i++) {
+            storage.edit().putString("key", "value" + i).apply();
+        }
+
+        assert (file.length() < 64 * 1024);
+        assert (new FileSessionStorage(file, false).getString("key").equals("value4999"));
+    }
+
+    @Test
+    public void testFileSessionStorageKeepsWritingWhenCompactionFails() throws Exception {
+        File file = createEmptyTemporaryFile();
+        FileSessionStorage storage = new FileSessionStorage(file, false);
+
+        // A directory in place of the temporary file makes every compaction fail
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        assert (temporaryFile.mkdir());
+        temporaryFile.deleteOnExit();
+
+        for (int i = 0; i < 5000; i++) {
+            storage.edit().putString("key", "value" + i).apply();
+        }
+
+        assert (file.length() > 64 * 1024);
+        assert (storage.getString("key").equals("value4999"));
+        assert (new FileSessionStorage(file, false).getString("key").equals("value4999"));
+
+        // Once compacting works again the log is compacted by the next apply
+        assert (temporaryFile.delete());
+        storage.edit().putString("key", "value5000").apply();
+        assert (file.length() < 64 * 1024);
+        assert (new FileSessionStorage(file, false).getString("key").equals("value5000"));
+    }
+
+    @Test
+    public void testFileSessionStorageTruncatesAfterLastCompleteLargeRecord() throws Exception {
+        File file = createEmptyTemporaryFile();
+        StringBuilder largeValue = new StringBuilder();
+        for (int i = 0; i < 20 * 1024; i++) {
+            largeValue.append('a');
+        }
+
+        // Records larger than the read buffer, so the valid length cannot be derived from what is buffered
+        FileSessionStorage storage = new FileSessionStorage(file, false);
+        storage.edit().putString("key1", largeValue.toString()).apply();
+        storage.edit().putString("key2", largeValue.toString()).apply();
+        long lengthAfterSecondRecord = file.length();
+        storage.edit().putString("key3", largeValue.toString()).apply();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() - 5 * 1024);
+        randomAccessFile.close();
+
+        SessionStorage reopened = new FileSessionStorage(file, false);
+        assert (reopened.getString("key2").equals(largeValue.toString()));
+        assert (reopened.getString("key3") == null);
+        assert (file.length() == lengthAfterSecondRecord);
+
+        reopened.edit().putString("key3", "value3").apply();
+        SessionStorage reopenedAgain = new FileSessionStorage(file, false);
+        assert (reopenedAgain.getString("key1").equals(largeValue.toString()));
+        assert (reopenedAgain.getString("key3").equals("value3"));
+    }
+}
@@ -60,14 +60,21 @@ import java.io.OutputStream;
 import java.net.CookiePolicy;
 import java.net.HttpCookie;
 import java.net.HttpURLConnection;
+import java.net.URI;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
 import com.example.example.Constants;
@@ -1219,4 +1226,266 @@ public class SuperTokensHttpURLConnectionTest {
 
         userInfoRequestConnection.disconnect();
     }
+
+    @Test
+    public void httpUrlConnection_testThatTheRequestIsNotSentIfTheSessionExpiresBeforeTheRequest() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .refreshBeforeRequestIfExpired(true)
+                    .build();
+            backend.accessTokenValidityMillis = -1000;
+            HttpURLConnection loginRequestConnection = SuperTokensHttpURLConnection.newRequest(new URL(backend.getApiDomain() + "/login"), new SuperTokensHttpURLConnection.PreConnectCallback() {
+                @Override
+                public void doAction(HttpURLConnection con) throws IOException {
+                    con.setRequestMethod("POST");
+                }
+            });
+            assert (loginRequestConnection.getResponseCode() == 200);
+            loginRequestConnection.disconnect();
+
+            backend.refreshFails = true;
+            HttpURLConnection connection = SuperTokensHttpURLConnection.newRequest(new URL(backend.getApiDomain() + "/"), null);
+            assert (connection.getResponseCode() == sessionExpiryCode);
+            connection.disconnect();
+
+            assert (backend.refreshCount.get() == 1);
+            assert (!backend.requests.contains("GET /"));
+            assert (!SuperTokens.doesSessionExist(context));
+        } finally {
+            backend.stop();
+        }
+    }
+
+    private static List<String> getCookieNames(SuperTokensPersistentCookieStore store, String uri) throws Exception {
+        List<String> names = new ArrayList<>();
+        for (HttpCookie cookie : store.get(new URI(uri))) {
+            names.add(cookie.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test
+    public void httpUrlConnection_testThatTheCookieStoreReturnsCookiesOfTheHostAndItsParentDomains() throws Exception {
+        SuperTokensPersistentCookieStore store = new SuperTokensPersistentCookieStore(context);
+        store.add(new URI("http://api.example.com/"), new HttpCookie("hostCookie", "1"));
+        HttpCookie parentDomainCookie = new HttpCookie("parentDomainCookie", "2");
+        parentDomainCookie.setDomain(".example.com");
+        store.add(new URI("http://api.example.com/"), parentDomainCookie);
+        HttpCookie pathCookie = new HttpCookie("pathCookie", "3");
+        pathCookie.setDomain("api.example.com");
+        pathCookie.setPath("/auth");
+        store.add(new URI("http://api.example.com/auth"), pathCookie);
+        store.add(new URI("http://other.com/"), new HttpCookie("otherCookie", "4"));
+
+        assert (getCookieNames(store, "http://api.example.com/auth/session/refresh")
+                .equals(Arrays.asList("hostCookie", "parentDomainCookie", "pathCookie")));
+        assert (getCookieNames(store, "http://api.example.com/authors")
+                .equals(Arrays.asList("hostCookie", "parentDomainCookie")));
+        assert (getCookieNames(store, "http://example.com/").equals(Collections.singletonList("parentDomainCookie")));
+        assert (getCookieNames(store, "http://notexample.com/").isEmpty());
+        assert (getCookieNames(store, "http://other.com/").equals(Collections.singletonList("otherCookie")));
+
+        // Removing the last cookie of a URI removes it from the index as well
+        assert (store.remove(new URI("http://api.example.com/auth"), pathCookie));
+        assert (getCookieNames(store, "http://api.example.com/auth/session/refresh")
+                .equals(Arrays.asList("hostCookie", "parentDomainCookie")));
+        assert (store.getURIs().size() == 3);
+    }
+
+    @Test
+    public void httpUrlConnection_testThatStoredCookiesAreReadBack() throws Exception {
+        URI uri = new URI("http://example.com/");
+        HttpCookie cookie = new HttpCookie("sAccessToken", "access-token-value");
+        cookie.setPath("/");
+        cookie.setMaxAge(3600);
+        cookie.setSecure(true);
+
+        SuperTokensPersistentCookieStore store = new SuperTokensPersistentCookieStore(context);
+        store.add(uri, cookie);
+        store.flush();
+        assert (mockedPrefs.getString("http://example.com/|sAccessToken", "").startsWith("v2:"));
+
+        List<HttpCookie> cookies = new SuperTokensPersistentCookieStore(context).get(uri);
+        assert (cookies.size() == 1);
+        HttpCookie readCookie = cookies.get(0);
+        assert (readCookie.getValue().equals("access-token-value"));
+        assert (readCookie.getPath().equals("/"));
+        assert (readCookie.getSecure());
+        // The expiry is stored as an absolute time, so the max age keeps counting down after the cookie is read
+        assert (readCookie.getMaxAge() > 3500 && readCookie.getMaxAge() <= 3600);
+    }
+
+    @Test
+    public void httpUrlConnection_testThatCookiesStoredInTheLegacyFormatAreMigrated() throws Exception {
+        // A session cookie for example.com, serialised by the previous version of the store
+        String legacyCookie = "aced000573720039636f6d2e7375706572746f6b656e732e73657373696f6e2e5375706572546f6b656e73"
+                + "53657269616c697a61626c6548747470436f6f6b696558765a0a7f563d0c0300014c000d6669656c64487474704f6e6c79"
+                + "7400194c6a6176612f6c616e672f7265666c6563742f4669656c643b7870740007734c656761637974000c6c656761637"
+                + "92d76616c7565707074000b6578616d706c652e636f6d7708ffffffffffffffff7400012f7077070000000100000078";
+        mockedPrefs.edit().putString("http://example.com/|sLegacy", legacyCookie).commit();
+
+        List<HttpCookie> cookies = new SuperTokensPersistentCookieStore(context).get(new URI("http://example.com/"));
+        assert (cookies.size() == 1);
+        assert (cookies.get(0).getName().equals("sLegacy"));
+        assert (cookies.get(0).getValue().equals("legacy-value"));
+        assert (cookies.get(0).getMaxAge() == -1);
+
+        // The cookie is written again in the current format when it is loaded
+        assert (mockedPrefs.getString("http://example.com/|sLegacy", "").startsWith("v2:"));
+        cookies = new SuperTokensPersistentCookieStore(context).get(new URI("http://example.com/"));
+        assert (cookies.size() == 1);
+        assert (cookies.get(0).getValue().equals("legacy-value"));
+    }
+
+    @Test
+    public void httpUrlConnection_testThatTheCookieStoreCanLoadOnAnExecutor() throws Exception {
+        SuperTokensPersistentCookieStore initialStore = new SuperTokensPersistentCookieStore(context);
+        initialStore.add(new URI("http://example.com/"), new HttpCookie("sAccessToken", "value"));
+        initialStore.flush();
+
+        final List<Runnable> loadTasks = new ArrayList<>();
+        final SuperTokensPersistentCookieStore store = new SuperTokensPersistentCookieStore(context, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                loadTasks.add(command);
+            }
+        });
+        assert (loadTasks.size() == 1);
+
+        // Calls made before the cookies are loaded wait for them
+        final List<HttpCookie> cookies = Collections.synchronizedList(new ArrayList<HttpCookie>());
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cookies.addAll(store.get(new URI("http://example.com/")));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        reader.start();
+        reader.join(200);
+        assert (reader.isAlive());
+
+        loadTasks.get(0).run();
+        reader.join(5000);
+        assert (!reader.isAlive());
+        assert (cookies.size() == 1);
+        assert (cookies.get(0).getValue().equals("value"));
+
+        // If the executor rejects the task the cookies are loaded by the constructor
+        SuperTokensPersistentCookieStore rejectedStore = new SuperTokensPersistentCookieStore(context, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        assert (rejectedStore.get(new URI("http://example.com/")).size() == 1);
+    }
+
+    @Test
+    public void httpUrlConnection_testThatCookieChangesAreWrittenInTheBackgroundOrOnFlush() throws Exception {
+        SuperTokensPersistentCookieStore store = new SuperTokensPersistentCookieStore(context);
+        store.add(new URI("http://example.com/"), new HttpCookie("sAccessToken", "access"));
+        store.add(new URI("http://example.com/"), new HttpCookie("sRefreshToken", "refresh"));
+
+        // The changes are visible through the store right away and written shortly after
+        assert (store.get(new URI("http://example.com/")).size() == 2);
+        assert (!mockedPrefs.contains("http://example.com/|sAccessToken"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!mockedPrefs.contains("http://example.com/|sRefreshToken") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assert (mockedPrefs.contains("http://example.com/|sAccessToken"));
+        assert (mockedPrefs.contains("http://example.com/|sRefreshToken"));
+
+        // flush writes the pending changes without waiting
+        store.remove(new URI("http://example.com/"), new HttpCookie("sAccessToken", "access"));
+        store.flush();
+        assert (!mockedPrefs.contains("http://example.com/|sAccessToken"));
+        assert (mockedPrefs.contains("http://example.com/|sRefreshToken"));
+
+        store.removeAll();
+        store.flush();
+        assert (!mockedPrefs.contains("http://example.com/|sRefreshToken"));
+        assert (new SuperTokensPersistentCookieStore(context).getCookies().isEmpty());
+    }
+
+    @Test
+    public void httpUrlConnection_testThatExpiredCookiesAreRemovedWithoutRequestingTheirUri() throws Exception {
+        SuperTokensPersistentCookieStore store = new SuperTokensPersistentCookieStore(context);
+        HttpCookie expiringCookie = new HttpCookie("expiring", "1");
+        expiringCookie.setMaxAge(1);
+        store.add(new URI("http://expiring.com/"), expiringCookie);
+        HttpCookie replacedCookie = new HttpCookie("replaced", "1");
+        replacedCookie.setMaxAge(1);
+        store.add(new URI("http://example.com/"), replacedCookie);
+        HttpCookie replacingCookie = new HttpCookie("replaced", "2");
+        replacingCookie.setMaxAge(3600);
+        store.add(new URI("http://example.com/"), replacingCookie);
+        store.flush();
+        assert (mockedPrefs.contains("http://expiring.com/|expiring"));
+
+        Thread.sleep(1100);
+
+        // Only example.com is requested, the expired cookie of expiring.com is removed as well
+        List<HttpCookie> cookies = store.get(new URI("http://example.com/"));
+        assert (cookies.size() == 1);
+        assert (cookies.get(0).getValue().equals("2"));
+        assert (store.getURIs().equals(Collections.singletonList(new URI("http://example.com/"))));
+        store.flush();
+        assert (!mockedPrefs.contains("http://expiring.com/|expiring"));
+        assert (mockedPrefs.contains("http://example.com/|replaced"));
+    }
+
+    @Test
+    public void httpUrlConnection_testThatAResponseSentBeforeARefreshDoesNotOverwriteTheNewTokens() throws Exception {
+        final FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain()).build();
+            HttpURLConnection loginRequestConnection = SuperTokensHttpURLConnection.newRequest(new URL(backend.getApiDomain() + "/login"), new SuperTokensHttpURLConnection.PreConnectCallback() {
+                @Override
+                public void doAction(HttpURLConnection con) throws IOException {
+                    con.setRequestMethod("POST");
+                }
+            });
+            assert (loginRequestConnection.getResponseCode() == 200);
+            loginRequestConnection.disconnect();
+            backend.slowRequestMillis = 1000;
+
+            final CountDownLatch slowRequestDone = new CountDownLatch(1);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        HttpURLConnection connection = SuperTokensHttpURLConnection.newRequest(new URL(backend.getApiDomain() + "/slow-tokens"), null);
+                        connection.getResponseCode();
+                        connection.disconnect();
+                    } catch (Exception e) {
+                    }
+                    slowRequestDone.countDown();
+                }
+            }).start();
+
+            while (!backend.requests.contains("GET /slow-tokens")) {
+                Thread.sleep(10);
+            }
+            assert (SuperTokens.attemptRefreshingSession(context));
+            assert (slowRequestDone.await(5, TimeUnit.SECONDS));
+
+            // The slow response carries the tokens from before the refresh, they must not replace the new ones
+            assert (Utils.getTokenForHeaderAuth(Utils.TokenType.ACCESS, context).equals(backend.getCurrentAccessToken()));
+            HttpURLConnection connection = SuperTokensHttpURLConnection.newRequest(new URL(backend.getApiDomain() + "/"), null);
+            assert (connection.getResponseCode() == 200);
+            connection.disconnect();
+            assert (backend.refreshCount.get() == 1);
+        } finally {
+            backend.stop();
+        }
+    }
 }
@@ -32,6 +32,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import org.jetbrains.annotations.NotNull;
+import org.json.JSONObject;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -42,28 +43,60 @@ import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
+import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Handler;
 
 import com.supertokens.session.CustomHeaderProvider;
+import com.supertokens.session.EventHandler;
+import com.supertokens.session.FrontToken;
+import com.supertokens.session.InMemorySessionStorage;
+import com.supertokens.session.SessionEvent;
+import com.supertokens.session.SessionEventListener;
+import com.supertokens.session.SessionFuture;
+import com.supertokens.session.SessionState;
+import com.supertokens.session.SessionStateObserver;
+import com.supertokens.session.SessionStatus;
+import com.supertokens.session.SessionStorage;
 import com.supertokens.session.SuperTokens;
+import com.supertokens.session.SuperTokensAuthenticator;
+import com.supertokens.session.SuperTokensCookieJar;
+import com.supertokens.session.SuperTokensCallFactory;
+import com.supertokens.session.SuperTokensHeaderInterceptor;
+import com.supertokens.session.SuperTokensHttpURLConnection;
 import com.supertokens.session.SuperTokensInterceptor;
 import com.supertokens.session.SuperTokensPersistentCookieStore;
 import com.supertokens.session.Utils;
 
 import net.bytebuddy.implementation.bind.annotation.Super;
 
+import okhttp3.Authenticator;
+import okhttp3.Cookie;
+import okhttp3.Dns;
+import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -71,6 +104,7 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okhttp3.Route;
 
 @SuppressWarnings({"CatchMayIgnoreException", "FieldCanBeLocal", "deprecation"})
 @RunWith(MockitoJUnitRunner.class)
@@ -1266,6 +1300,998 @@ public class SuperTokensOkHttpHeaderTests {
         }
     }
 
+    private void loginToFakeBackend(FakeSessionBackend backend) throws Exception {
+        Request request = new Request.Builder()
+                .url(backend.getApiDomain() + "/login")
+                .method("POST", RequestBody.create(null, new byte[0]))
+                .build();
+        Response loginResponse = okHttpClient.newCall(request).execute();
+        if (loginResponse.code() != 200) {
+            throw new Exception("Error making login request");
+        }
+        loginResponse.close();
+    }
+
+    private int getStatusFromFakeBackend(FakeSessionBackend backend, String path) throws IOException {
+        Response response = okHttpClient.newCall(new Request.Builder().url(backend.getApiDomain() + path).build()).execute();
+        int code = response.code();
+        response.close();
+        return code;
+    }
+
+    @Test
+    public void okHttpHeaders_testThatOkHttpAndHttpURLConnectionShareASingleRefresh() throws Exception {
+        final FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain()).build();
+            loginToFakeBackend(backend);
+            backend.expireAccessToken();
+            backend.refreshDelayMillis = 300;
+
+            int requestCount = 10;
+            final List<Integer> statuses = new ArrayList<>();
+            ExecutorService executorService = Executors.newFixedThreadPool(requestCount);
+            for (int i = 0; i < requestCount; i++) {
+                final boolean useHttpURLConnection = i % 2 == 0;
+                executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        int status = -1;
+                        try {
+                            if (useHttpURLConnection) {
+                                HttpURLConnection connection = SuperTokensHttpURLConnection.newRequest(new URL(backend.getApiDomain() + "/"), null);
+                                status = connection.getResponseCode();
+                                connection.disconnect();
+                            } else {
+                                status = getStatusFromFakeBackend(backend, "/");
+                            }
+                        } catch (Exception e) {
+                        }
+                        synchronized (statuses) {
+                            statuses.add(status);
+                        }
+                    }
+                });
+            }
+            executorService.shutdown();
+            assert (executorService.awaitTermination(10, TimeUnit.SECONDS));
+
+            for (int status : statuses) {
+                assert (status == 200);
+            }
+            assert (statuses.size() == requestCount);
+            assert (backend.refreshCount.get() == 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatARequestInFlightDoesNotBlockARefresh() throws Exception {
+        final FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain()).build();
+            loginToFakeBackend(backend);
+            backend.slowRequestMillis = 2000;
+
+            final CountDownLatch slowRequestDone = new CountDownLatch(1);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getStatusFromFakeBackend(backend, "/slow");
+                    } catch (IOException e) {
+                    }
+                    slowRequestDone.countDown();
+                }
+            }).start();
+
+            // Wait for the slow request to be authorised by the backend before expiring the access token
+            while (!backend.requests.contains("GET /slow")) {
+                Thread.sleep(10);
+            }
+            backend.expireAccessToken();
+
+            assert (getStatusFromFakeBackend(backend, "/") == 200);
+            assert (backend.refreshCount.get() == 1);
+            // The refresh happened while the slow request was still waiting for its response
+            assert (slowRequestDone.getCount() == 1);
+            assert (slowRequestDone.await(5, TimeUnit.SECONDS));
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatAResponseSentBeforeARefreshDoesNotOverwriteTheNewTokens() throws Exception {
+        final FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain()).build();
+            loginToFakeBackend(backend);
+            backend.slowRequestMillis = 1000;
+
+            final CountDownLatch slowRequestDone = new CountDownLatch(1);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getStatusFromFakeBackend(backend, "/slow-tokens");
+                    } catch (IOException e) {
+                    }
+                    slowRequestDone.countDown();
+                }
+            }).start();
+
+            while (!backend.requests.contains("GET /slow-tokens")) {
+                Thread.sleep(10);
+            }
+            assert (SuperTokens.attemptRefreshingSession(context));
+            assert (slowRequestDone.await(5, TimeUnit.SECONDS));
+
+            // The slow response carries the tokens from before the refresh, they must not replace the new ones
+            assert (Utils.getTokenForHeaderAuth(Utils.TokenType.ACCESS, context).equals(backend.getCurrentAccessToken()));
+            assert (getStatusFromFakeBackend(backend, "/") == 200);
+            assert (backend.refreshCount.get() == 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatAnExpiredAccessTokenIsRefreshedBeforeTheRequest() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .refreshBeforeRequestIfExpired(true)
+                    .build();
+            backend.accessTokenValidityMillis = -1000;
+            loginToFakeBackend(backend);
+            backend.accessTokenValidityMillis = 60 * 1000;
+
+            assert (getStatusFromFakeBackend(backend, "/") == 200);
+            assert (backend.refreshCount.get() == 1);
+            // The request was only sent with the new access token
+            assert (backend.unauthorisedCount.get() == 0);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatTheRequestIsNotSentIfTheSessionExpiresBeforeTheRequest() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            final List<EventHandler.EventType> events = new ArrayList<>();
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .refreshBeforeRequestIfExpired(true)
+                    .eventExecutor(new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            command.run();
+                        }
+                    })
+                    .eventHandler(new EventHandler() {
+                        @Override
+                        public void handleEvent(EventType eventType) {
+                            events.add(eventType);
+                        }
+                    })
+                    .build();
+            backend.accessTokenValidityMillis = -1000;
+            loginToFakeBackend(backend);
+            backend.refreshFails = true;
+            events.clear();
+
+            assert (getStatusFromFakeBackend(backend, "/") == 401);
+            assert (backend.refreshCount.get() == 1);
+            assert (!backend.requests.contains("GET /"));
+            assert (!SuperTokens.doesSessionExist(context));
+            assert (Collections.frequency(events, EventHandler.EventType.UNAUTHORISED) == 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatTheRefreshBeforeTheRequestCountsAsARefreshAttempt() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .refreshBeforeRequestIfExpired(true)
+                    .maxRetryAttemptsForSessionRefresh(1)
+                    .build();
+            // Every access token the backend creates has already expired
+            backend.accessTokenValidityMillis = -1000;
+            loginToFakeBackend(backend);
+
+            try {
+                getStatusFromFakeBackend(backend, "/");
+                throw new Exception("test failed");
+            } catch (IOException e) {
+                assert (e.getMessage().contains("The maximum session refresh limit has been reached"));
+            }
+            assert (backend.refreshCount.get() == 1);
+            assert (backend.unauthorisedCount.get() == 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatOnlyTheConfiguredPartOfA401BodyIsBuffered() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .maxUnauthorisedResponseBodySize(10L)
+                    .build();
+            backend.unauthorisedBodySize = 1000;
+
+            // Without a session the refresh API is not called and the response is returned as is
+            Response response = okHttpClient.newCall(new Request.Builder().url(backend.getApiDomain() + "/").build()).execute();
+            assert (response.code() == 401);
+            assert (response.body().string().length() == 1000);
+
+            loginToFakeBackend(backend);
+            backend.expireAccessToken();
+            backend.refreshFails = true;
+
+            // The refresh API is called through the same chain, so the body has to be buffered before it is returned
+            response = okHttpClient.newCall(new Request.Builder().url(backend.getApiDomain() + "/").build()).execute();
+            assert (response.code() == 401);
+            assert (response.header("Content-Length") == null);
+            assert (response.body().string().length() == 10);
+            assert (backend.refreshCount.get() == 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatA401BodyIsReturnedWholeByDefault() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain()).build();
+            backend.unauthorisedBodySize = 100 * 1024;
+            loginToFakeBackend(backend);
+            backend.expireAccessToken();
+            backend.refreshFails = true;
+
+            Response response = okHttpClient.newCall(new Request.Builder().url(backend.getApiDomain() + "/").build()).execute();
+            assert (response.code() == 401);
+            assert (String.valueOf(100 * 1024).equals(response.header("Content-Length")));
+            assert (response.body().string().length() == 100 * 1024);
+            assert (backend.refreshCount.get() == 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    // Collects the tasks given to it so that the test decides when they run
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+        boolean rejectTasks = false;
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            if (rejectTasks) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        return;
+                    }
+                    task = tasks.remove(0);
+                }
+                task.run();
+            }
+        }
+    }
+
+    private static final EventHandler.EventType[] firedEventTypes = {
+            EventHandler.EventType.UNAUTHORISED,
+            EventHandler.EventType.SIGN_OUT,
+            EventHandler.EventType.SESSION_CREATED
+    };
+
+    // Fires firedEventTypes[i % firedEventTypes.length] through the same path the interceptors use
+    private static void fireEvent(int i) {
+        EventHandler.EventType eventType = firedEventTypes[i % firedEventTypes.length];
+        if (eventType == EventHandler.EventType.UNAUTHORISED) {
+            Utils.fireSessionUpdateEventsIfNecessary(true, 401, "remove");
+        } else if (eventType == EventHandler.EventType.SIGN_OUT) {
+            Utils.fireSessionUpdateEventsIfNecessary(true, 200, "remove");
+        } else {
+            Utils.fireSessionUpdateEventsIfNecessary(false, 200, "front-token");
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatEventsAreDeliveredInOrderOnTheEventExecutor() throws Exception {
+        ManualExecutor eventExecutor = new ManualExecutor();
+        final List<EventHandler.EventType> events = new ArrayList<>();
+        new SuperTokens.Builder(context, Constants.apiDomain)
+                .eventExecutor(eventExecutor)
+                .eventHandler(new EventHandler() {
+                    @Override
+                    public void handleEvent(EventType eventType) {
+                        events.add(eventType);
+                    }
+                })
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            fireEvent(i);
+        }
+
+        // Nothing is delivered on the thread that fired the events, and a single task delivers all of them
+        assert (events.isEmpty());
+        assert (eventExecutor.tasks.size() == 1);
+
+        eventExecutor.runAll();
+        assert (events.size() == 10);
+        for (int i = 0; i < 10; i++) {
+            assert (events.get(i) == firedEventTypes[i % firedEventTypes.length]);
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatTheOldestEventsAreDroppedIfTheHandlerFallsBehind() throws Exception {
+        ManualExecutor eventExecutor = new ManualExecutor();
+        final List<EventHandler.EventType> events = new ArrayList<>();
+        new SuperTokens.Builder(context, Constants.apiDomain)
+                .eventExecutor(eventExecutor)
+                .eventHandler(new EventHandler() {
+                    @Override
+                    public void handleEvent(EventType eventType) {
+                        events.add(eventType);
+                    }
+                })
+                .build();
+
+        for (int i = 0; i < 150; i++) {
+            fireEvent(i);
+        }
+        eventExecutor.runAll();
+
+        // Only the last 100 events are delivered
+        assert (events.size() == 100);
+        for (int i = 0; i < 100; i++) {
+            assert (events.get(i) == firedEventTypes[(i + 50) % firedEventTypes.length]);
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatEventsAreDroppedIfTheEventExecutorRejectsThem() throws Exception {
+        ManualExecutor eventExecutor = new ManualExecutor();
+        final List<EventHandler.EventType> events = new ArrayList<>();
+        new SuperTokens.Builder(context, Constants.apiDomain)
+                .eventExecutor(eventExecutor)
+                .eventHandler(new EventHandler() {
+                    @Override
+                    public void handleEvent(EventType eventType) {
+                        events.add(eventType);
+                    }
+                })
+                .build();
+
+        eventExecutor.rejectTasks = true;
+        fireEvent(0);
+
+        // The rejected event is not delivered later along with the next one
+        eventExecutor.rejectTasks = false;
+        fireEvent(1);
+        eventExecutor.runAll();
+
+        assert (events.size() == 1);
+        assert (events.get(0) == firedEventTypes[1]);
+    }
+
+    @Test
+    public void okHttpHeaders_testThatSessionEventListenersReceiveTheTokenInfoAndRefreshDuration() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            final List<SessionEvent> events = new ArrayList<>();
+            SessionEventListener throwingListener = new SessionEventListener() {
+                @Override
+                public void onSessionEvent(SessionEvent event) {
+                    throw new IllegalStateException("listener error");
+                }
+            };
+            SessionEventListener listener = new SessionEventListener() {
+                @Override
+                public void onSessionEvent(SessionEvent event) {
+                    events.add(event);
+                }
+            };
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .eventExecutor(new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            command.run();
+                        }
+                    })
+                    .build();
+            // An error in one listener does not stop the others from receiving the event
+            SuperTokens.addSessionEventListener(throwingListener);
+            SuperTokens.addSessionEventListener(listener);
+
+            loginToFakeBackend(backend);
+            backend.expireAccessToken();
+            backend.refreshDelayMillis = 200;
+            assert (getStatusFromFakeBackend(backend, "/") == 200);
+
+            assert (events.size() == 2);
+            assert (events.get(0).getType() == EventHandler.EventType.SESSION_CREATED);
+            assert (events.get(0).getTokenInfo().getUserId().equals(FakeSessionBackend.USER_ID));
+            assert (events.get(0).getRefreshDurationMillis() == -1);
+            assert (events.get(1).getType() == EventHandler.EventType.REFRESH_SESSION);
+            assert (events.get(1).getTokenInfo().getUserId().equals(FakeSessionBackend.USER_ID));
+            assert (events.get(1).getRefreshDurationMillis() >= 200);
+
+            SuperTokens.removeSessionEventListener(listener);
+            SuperTokens.signOut(context);
+            assert (events.size() == 2);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatSessionStateObserversSeeEveryStateInOrder() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            final List<SessionState> states = new ArrayList<>();
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .eventExecutor(new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            command.run();
+                        }
+                    })
+                    .build();
+            SuperTokens.addSessionStateObserver(new SessionStateObserver() {
+                @Override
+                public void onSessionStateChanged(SessionState state) {
+                    states.add(state);
+                }
+            });
+            assert (!SuperTokens.getSessionState().doesSessionExist());
+            assert (SuperTokens.getSessionState().getTokenInfo() == null);
+
+            loginToFakeBackend(backend);
+            SessionState loggedInState = SuperTokens.getSessionState();
+            assert (loggedInState.doesSessionExist());
+            assert (loggedInState.getTokenInfo().getUserId().equals(FakeSessionBackend.USER_ID));
+
+            backend.expireAccessToken();
+            assert (getStatusFromFakeBackend(backend, "/") == 200);
+            SessionState refreshedState = SuperTokens.getSessionState();
+            assert (refreshedState.getGeneration() == loggedInState.getGeneration() + 1);
+
+            SuperTokens.signOut(context);
+            assert (!SuperTokens.getSessionState().doesSessionExist());
+
+            assert (states.size() == 3);
+            assert (states.get(0) == loggedInState);
+            assert (states.get(1) == refreshedState);
+            assert (!states.get(2).doesSessionExist());
+            // Each snapshot keeps the front token it was created with
+            assert (loggedInState.getTokenInfo() != refreshedState.getTokenInfo());
+            assert (loggedInState.getTokenInfo().getUserId().equals(FakeSessionBackend.USER_ID));
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testLocalSessionStatusAndDoesSessionExistAsync() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain()).build();
+            assert (SuperTokens.getLocalSessionStatus(context) == SessionStatus.NONE);
+            SessionFuture<Boolean> noSession = SuperTokens.doesSessionExistAsync(context);
+            assert (noSession.isDone() && !noSession.get());
+
+            backend.accessTokenValidityMillis = -1000;
+            loginToFakeBackend(backend);
+            backend.accessTokenValidityMillis = 60 * 1000;
+            assert (SuperTokens.getLocalSessionStatus(context) == SessionStatus.EXPIRED);
+            assert (backend.refreshCount.get() == 0);
+
+            // Concurrent checks while the access token is expired share a single refresh
+            backend.refreshDelayMillis = 300;
+            List<SessionFuture<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(SuperTokens.doesSessionExistAsync(context));
+            }
+            for (SessionFuture<Boolean> future : futures) {
+                assert (future.get(5, TimeUnit.SECONDS));
+            }
+            assert (backend.refreshCount.get() == 1);
+
+            // Once the session was refreshed the result is available without a network call
+            assert (SuperTokens.getLocalSessionStatus(context) == SessionStatus.EXISTS);
+            SessionFuture<Boolean> exists = SuperTokens.doesSessionExistAsync(context);
+            assert (exists.isDone() && exists.get());
+            assert (backend.refreshCount.get() == 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testAsyncRefreshSignOutAndPayloadAPIs() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            ExecutorService asyncExecutor = Executors.newSingleThreadExecutor();
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .asyncExecutor(asyncExecutor)
+                    .build();
+
+            SessionFuture<JSONObject> noSessionPayload = SuperTokens.getAccessTokenPayloadSecurelyAsync(context);
+            try {
+                noSessionPayload.get();
+                throw new Exception("test failed");
+            } catch (ExecutionException e) {
+                assert (e.getCause() instanceof IllegalStateException);
+            }
+
+            loginToFakeBackend(backend);
+            // The payload of a valid access token is returned without a refresh
+            SessionFuture<JSONObject> payload = SuperTokens.getAccessTokenPayloadSecurelyAsync(context);
+            assert (payload.isDone());
+            assert (payload.get().length() == 0);
+
+            final CountDownLatch callbackCalled = new CountDownLatch(1);
+            final List<Boolean> callbackResults = new ArrayList<>();
+            SuperTokens.attemptRefreshingSessionAsync(context).addCallback(new SessionFuture.Callback<Boolean>() {
+                @Override
+                public void onSuccess(Boolean result) {
+                    callbackResults.add(result);
+                    callbackCalled.countDown();
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    callbackCalled.countDown();
+                }
+            });
+            assert (callbackCalled.await(5, TimeUnit.SECONDS));
+            assert (callbackResults.size() == 1 && callbackResults.get(0));
+            assert (backend.refreshCount.get() == 1);
+
+            // With an expired access token the payload is returned after the refresh
+            backend.accessTokenValidityMillis = -1000;
+            assert (SuperTokens.attemptRefreshingSessionAsync(context).get(5, TimeUnit.SECONDS));
+            backend.accessTokenValidityMillis = 60 * 1000;
+            assert (SuperTokens.getLocalSessionStatus(context) == SessionStatus.EXPIRED);
+            assert (SuperTokens.getAccessTokenPayloadSecurelyAsync(context).get(5, TimeUnit.SECONDS).length() == 0);
+            assert (backend.refreshCount.get() == 3);
+
+            SuperTokens.signOutAsync(context).get(5, TimeUnit.SECONDS);
+            assert (backend.requests.contains("POST /auth/signout"));
+            assert (SuperTokens.getLocalSessionStatus(context) == SessionStatus.NONE);
+
+            // Without a session the refresh does not call the refresh API
+            assert (!SuperTokens.attemptRefreshingSessionAsync(context).get(5, TimeUnit.SECONDS));
+            assert (backend.refreshCount.get() == 3);
+            asyncExecutor.shutdown();
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatEnqueuedCallsAreEnqueuedAgainAfterASharedRefresh() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain()).build();
+            loginToFakeBackend(backend);
+            backend.expireAccessToken();
+            backend.refreshDelayMillis = 300;
+
+            SuperTokensCallFactory callFactory = new SuperTokensCallFactory(okHttpClient);
+            int callCount = 5;
+            final CountDownLatch callbacksCalled = new CountDownLatch(callCount);
+            final List<Integer> statuses = Collections.synchronizedList(new ArrayList<Integer>());
+            for (int i = 0; i < callCount; i++) {
+                callFactory.newCall(new Request.Builder().url(backend.getApiDomain() + "/").build()).enqueue(new okhttp3.Callback() {
+                    @Override
+                    public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                        statuses.add(-1);
+                        callbacksCalled.countDown();
+                    }
+
+                    @Override
+                    public void onResponse(@NotNull okhttp3.Call call, @NotNull Response response) {
+                        statuses.add(response.code());
+                        response.close();
+                        callbacksCalled.countDown();
+                    }
+                });
+            }
+
+            assert (callbacksCalled.await(10, TimeUnit.SECONDS));
+            assert (statuses.size() == callCount);
+            for (int status : statuses) {
+                assert (status == 200);
+            }
+            assert (backend.refreshCount.get() == 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatAnEnqueuedCallReceivesA401IfTheSessionCannotBeRefreshed() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .refreshBeforeRequestIfExpired(true)
+                    .build();
+            backend.accessTokenValidityMillis = -1000;
+            loginToFakeBackend(backend);
+            backend.refreshFails = true;
+
+            final CountDownLatch callbackCalled = new CountDownLatch(1);
+            final List<Integer> statuses = Collections.synchronizedList(new ArrayList<Integer>());
+            new SuperTokensCallFactory(okHttpClient).newCall(new Request.Builder().url(backend.getApiDomain() + "/").build()).enqueue(new okhttp3.Callback() {
+                @Override
+                public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                    statuses.add(-1);
+                    callbackCalled.countDown();
+                }
+
+                @Override
+                public void onResponse(@NotNull okhttp3.Call call, @NotNull Response response) {
+                    statuses.add(response.code());
+                    response.close();
+                    callbackCalled.countDown();
+                }
+            });
+
+            assert (callbackCalled.await(10, TimeUnit.SECONDS));
+            assert (statuses.size() == 1 && statuses.get(0) == 401);
+            // The session expired while refreshing before the call, so it was not sent
+            assert (!backend.requests.contains("GET /"));
+            assert (backend.refreshCount.get() == 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatTheRefreshClientKeepsTheAppClientSettingsButNotItsInterceptors() throws Exception {
+        Dns dns = new Dns() {
+            @NotNull
+            @Override
+            public List<InetAddress> lookup(@NotNull String hostname) throws UnknownHostException {
+                return Dns.SYSTEM.lookup(hostname);
+            }
+        };
+        OkHttpClient appClient = okHttpClient.newBuilder()
+                .addInterceptor(new customInterceptors())
+                .addNetworkInterceptor(new customInterceptors())
+                .authenticator(new Authenticator() {
+                    @Override
+                    public Request authenticate(Route route, @NotNull Response response) {
+                        return null;
+                    }
+                })
+                .dns(dns)
+                .build();
+
+        OkHttpClient refreshClient = SuperTokensInterceptor.buildRefreshClient(appClient);
+        assert (refreshClient.interceptors().isEmpty());
+        assert (refreshClient.networkInterceptors().isEmpty());
+        assert (refreshClient.authenticator() == Authenticator.NONE);
+        assert (refreshClient.dns() == dns);
+        assert (refreshClient.cookieJar() == appClient.cookieJar());
+        assert (refreshClient.connectionPool() == appClient.connectionPool());
+        assert (refreshClient.dispatcher() == appClient.dispatcher());
+        assert (refreshClient.sslSocketFactory() == appClient.sslSocketFactory());
+        assert (refreshClient.readTimeoutMillis() == 10000);
+    }
+
+    @Test
+    public void okHttpHeaders_testThatTheAuthenticatorRefreshesTheSessionAndRetriesTheRequest() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .maxRetryAttemptsForSessionRefresh(2)
+                    .build();
+            OkHttpClient baseClient = new OkHttpClient.Builder().build();
+            OkHttpClient client = baseClient.newBuilder()
+                    .addInterceptor(new SuperTokensHeaderInterceptor())
+                    .authenticator(new SuperTokensAuthenticator(SuperTokensInterceptor.buildRefreshClient(baseClient)))
+                    .build();
+
+            Response loginResponse = client.newCall(new Request.Builder()
+                    .url(backend.getApiDomain() + "/login")
+                    .method("POST", RequestBody.create(null, new byte[0]))
+                    .build()).execute();
+            assert (loginResponse.code() == 200);
+            loginResponse.close();
+
+            backend.expireAccessToken();
+            Response response = client.newCall(new Request.Builder().url(backend.getApiDomain() + "/").build()).execute();
+            assert (response.code() == 200);
+            response.close();
+            assert (backend.refreshCount.get() == 1);
+            assert (backend.unauthorisedCount.get() == 1);
+
+            // If every new access token is rejected the authenticator gives up after maxRetryAttemptsForSessionRefresh
+            backend.accessTokenValidityMillis = -1000;
+            backend.expireAccessToken();
+            response = client.newCall(new Request.Builder().url(backend.getApiDomain() + "/").build()).execute();
+            assert (response.code() == 401);
+            response.close();
+            assert (backend.refreshCount.get() == 3);
+
+            // If the session cannot be refreshed the 401 is returned to the app
+            backend.refreshFails = true;
+            response = client.newCall(new Request.Builder().url(backend.getApiDomain() + "/").build()).execute();
+            assert (response.code() == 401);
+            response.close();
+            assert (backend.refreshCount.get() == 4);
+            assert (!SuperTokens.doesSessionExist(context));
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatCookieJarCookiesAreWrittenWithTheSessionTokens() throws Exception {
+        final List<List<String>> appliedKeys = Collections.synchronizedList(new ArrayList<List<String>>());
+        final InMemorySessionStorage delegate = new InMemorySessionStorage();
+        SessionStorage recordingStorage = new SessionStorage() {
+            @Override
+            public String getString(String key) {
+                return delegate.getString(key);
+            }
+
+            @Override
+            public Editor edit() {
+                final SessionStorage.Editor editor = delegate.edit();
+                final List<String> keys = new ArrayList<>();
+                return new Editor() {
+                    @Override
+                    public Editor putString(String key, String value) {
+                        keys.add(key);
+                        editor.putString(key, value);
+                        return this;
+                    }
+
+                    @Override
+                    public Editor remove(String key) {
+                        keys.add(key);
+                        editor.remove(key);
+                        return this;
+                    }
+
+                    @Override
+                    public void apply() {
+                        appliedKeys.add(keys);
+                        editor.apply();
+                    }
+                };
+            }
+        };
+
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .tokenTransferMethod("cookie")
+                    .sessionStorage(recordingStorage)
+                    .build();
+            OkHttpClient client = new OkHttpClient.Builder()
+                    .addInterceptor(new SuperTokensInterceptor())
+                    .cookieJar(new SuperTokensCookieJar(context))
+                    .build();
+
+            Response loginResponse = client.newCall(new Request.Builder()
+                    .url(backend.getApiDomain() + "/login-cookies")
+                    .method("POST", RequestBody.create(null, new byte[0]))
+                    .build()).execute();
+            assert (loginResponse.code() == 200);
+            loginResponse.close();
+
+            // The cookies of the response and the front token must be stored by the same transaction
+            assert (appliedKeys.size() == 1);
+            List<String> keys = appliedKeys.get(0);
+            assert (keys.contains("supertokens-android-fronttoken-key"));
+            boolean hasCookieBucket = false;
+            for (String key : keys) {
+                hasCookieBucket = hasCookieBucket || key.startsWith("st-storage-item-cookies-");
+            }
+            assert (hasCookieBucket);
+            assert (SuperTokens.doesSessionExist(context));
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void okHttpHeaders_testThatDeprecatedStorageHelpersGoThroughTheTokenCache() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain()).build();
+            loginToFakeBackend(backend);
+
+            String accessTokenName = Utils.getStorageName(Utils.TokenType.ACCESS);
+            Utils.storeInStorage(accessTokenName, "replaced-access-token", context);
+            assert (Utils.getFromStorage(accessTokenName, context).equals("replaced-access-token"));
+            // Intercepted requests see the new value right away
+            assert (Utils.getTokenForHeaderAuth(Utils.TokenType.ACCESS, context).equals("replaced-access-token"));
+
+            Utils.storeInStorage("custom-item", "value", context);
+            assert (Utils.getFromStorage("custom-item", context).equals("value"));
+            Utils.storeInStorage("custom-item", "", context);
+            assert (Utils.getFromStorage("custom-item", context) == null);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatModifyingTheReturnedPayloadDoesNotChangeTheSession() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.accessTokenPayload = "{\"roles\":[\"admin\"],\"org\":{\"id\":1}}";
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain()).build();
+            loginToFakeBackend(backend);
+
+            JSONObject payload = SuperTokens.getAccessTokenPayloadSecurely(context);
+            assert (payload.getJSONArray("roles").getString(0).equals("admin"));
+            payload.getJSONObject("org").put("id", 2);
+            payload.getJSONArray("roles").put("owner");
+            payload.put("added", true);
+
+            JSONObject nextPayload = SuperTokens.getAccessTokenPayloadSecurely(context);
+            assert (nextPayload.getJSONObject("org").getInt("id") == 1);
+            assert (nextPayload.getJSONArray("roles").length() == 1);
+            assert (!nextPayload.has("added"));
+
+            JSONObject token = FrontToken.getToken(context);
+            token.put("uid", "someone-else");
+            token.getJSONObject("up").put("added", true);
+            assert (FrontToken.getToken(context).getString("uid").equals(FakeSessionBackend.USER_ID));
+            assert (!FrontToken.getToken(context).getJSONObject("up").has("added"));
+            assert (SuperTokens.getUserId(context).equals(FakeSessionBackend.USER_ID));
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatTheBackgroundRefreshUsesTheRefreshClient() throws Exception {
+        FakeSessionBackend backend = new FakeSessionBackend();
+        backend.accessTokenValidityMillis = 2000;
+        backend.start();
+        try {
+            new SuperTokens.Builder(context, backend.getApiDomain())
+                    .proactiveRefreshMarginMillis(1500L)
+                    .build();
+
+            final AtomicInteger refreshClientCalls = new AtomicInteger();
+            OkHttpClient refreshClient = SuperTokensInterceptor.buildRefreshClient(new OkHttpClient()).newBuilder()
+                    .addInterceptor(new Interceptor() {
+                        @NotNull
+                        @Override
+                        public Response intercept(@NotNull Chain chain) throws IOException {
+                            refreshClientCalls.incrementAndGet();
+                            return chain.proceed(chain.request());
+                        }
+                    })
+                    .build();
+            okHttpClient = new OkHttpClient.Builder()
+                    .addInterceptor(new SuperTokensInterceptor(refreshClient))
+                    .build();
+            loginToFakeBackend(backend);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (backend.refreshCount.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assert (backend.refreshCount.get() >= 1);
+            assert (refreshClientCalls.get() >= 1);
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatNothingIsPrintedIfLoggingIsDisabled() throws Exception {
+        EventHandler throwingHandler = new EventHandler() {
+            @Override
+            public void handleEvent(EventType eventType) {
+                throw new IllegalStateException("handler error");
+            }
+        };
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(err, true));
+        try {
+            new SuperTokens.Builder(context, Constants.apiDomain)
+                    .eventExecutor(directExecutor)
+                    .eventHandler(throwingHandler)
+                    .build();
+            fireEvent(0);
+            assert (err.size() > 0);
+
+            SuperTokens.resetForTests();
+            err.reset();
+            new SuperTokens.Builder(context, Constants.apiDomain)
+                    .eventExecutor(directExecutor)
+                    .eventHandler(throwingHandler)
+                    .loggingEnabled(false)
+                    .build();
+            fireEvent(0);
+            assert (err.size() == 0);
+        } finally {
+            System.setErr(originalErr);
+        }
+    }
+
+    @Test
+    public void okHttpHeaders_testThatAPersistentCookieSavedAfterASessionCookieIsReloaded() throws Exception {
+        InMemorySessionStorage storage = new InMemorySessionStorage();
+        new SuperTokens.Builder(context, Constants.apiDomain)
+                .sessionStorage(storage)
+                .build();
+        SuperTokensCookieJar cookieJar = new SuperTokensCookieJar(context);
+        HttpUrl url = HttpUrl.parse("https://cookies.example.com/");
+
+        cookieJar.saveFromResponse(url, Collections.singletonList(Cookie.parse(url, "session=a")));
+        cookieJar.saveFromResponse(url, Collections.singletonList(Cookie.parse(url, "persistent=b; Max-Age=3600")));
+
+        // Switching to another storage and back makes the cookie store read the cookies from storage again
+        SuperTokens.resetForTests();
+        new SuperTokens.Builder(context, Constants.apiDomain)
+                .sessionStorage(new InMemorySessionStorage())
+                .build();
+        assert (cookieJar.loadForRequest(url).isEmpty());
+
+        SuperTokens.resetForTests();
+        new SuperTokens.Builder(context, Constants.apiDomain)
+                .sessionStorage(storage)
+                .build();
+        List<Cookie> cookies = cookieJar.loadForRequest(url);
+        assert (cookies.size() == 1);
+        assert (cookies.get(0).name().equals("persistent"));
+    }
+
     //custom interceptors
     class customInterceptors implements Interceptor {
         @NotNull